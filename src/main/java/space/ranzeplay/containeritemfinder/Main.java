@@ -4,20 +4,24 @@ import com.google.gson.GsonBuilder;
 import lombok.Getter;
 import lombok.SneakyThrows;
 import net.fabricmc.api.ModInitializer;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerChunkEvents;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerLifecycleEvents;
 import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
 import net.fabricmc.fabric.api.event.player.PlayerBlockBreakEvents;
 import net.fabricmc.fabric.api.event.player.UseBlockCallback;
+import net.fabricmc.fabric.api.networking.v1.ServerPlayConnectionEvents;
 import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.block.ShulkerBoxBlock;
-import net.minecraft.block.entity.ChestBlockEntity;
-import net.minecraft.block.entity.ShulkerBoxBlockEntity;
 import net.minecraft.item.BlockItem;
 import net.minecraft.util.ActionResult;
 import net.minecraft.util.math.Vec3d;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import space.ranzeplay.containeritemfinder.command.ContainerCommandManager;
+import space.ranzeplay.containeritemfinder.container.ContainerAdapterRegistry;
 import space.ranzeplay.containeritemfinder.models.Config;
+import space.ranzeplay.containeritemfinder.output.ResultPages;
+import space.ranzeplay.containeritemfinder.scan.ScanScheduler;
 import space.ranzeplay.containeritemfinder.service.ContainerSearchService;
 import space.ranzeplay.containeritemfinder.service.ContainerIndexService;
 import space.ranzeplay.containeritemfinder.service.TrackingService;
@@ -35,24 +39,32 @@ public class Main implements ModInitializer {
 
     @Override
     public void onInitialize() {
-        ContainerSearchService searchService = new ContainerSearchService();
-        ContainerIndexService indexService = new ContainerIndexService();
+        loadConfig();
+
+        ScanScheduler scanScheduler = new ScanScheduler(config);
+        scanScheduler.register();
+
+        ContainerSearchService searchService = new ContainerSearchService(scanScheduler, config);
+        ContainerIndexService indexService = new ContainerIndexService(scanScheduler, config);
         ContainerCommandManager commandManager = new ContainerCommandManager(searchService, indexService);
         commandManager.register();
-
-        loadConfig();
+        ServerPlayConnectionEvents.DISCONNECT.register((handler, server) -> ResultPages.forget(handler.getPlayer().getUuid()));
 
         if (config.isEnableTracking()) {
             try {
                 trackingService = new TrackingService(config);
 
+                ServerLifecycleEvents.SERVER_STARTED.register(server -> trackingService.loadItemIndex());
+
                 ServerTickEvents.END_SERVER_TICK.register(server -> {
                     trackingService.tryScan(server);
                     trackingService.applyScanQueue(server);
                 });
 
+                ServerChunkEvents.CHUNK_LOAD.register((world, chunk) -> trackingService.chunkLoaded(world, chunk.getPos()));
+
                 PlayerBlockBreakEvents.AFTER.register((world, player, pos, state, entity) -> {
-                    if (entity instanceof ChestBlockEntity || entity instanceof ShulkerBoxBlockEntity) {
+                    if (ContainerAdapterRegistry.isContainer(entity)) {
                         trackingService.removeBlockFromTracking(pos, world);
                     }
                 });
@@ -1,21 +1,26 @@
 package space.ranzeplay.containeritemfinder.command;
 
+import com.mojang.brigadier.arguments.IntegerArgumentType;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
 import net.minecraft.server.command.CommandManager;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
 import space.ranzeplay.containeritemfinder.Main;
+import space.ranzeplay.containeritemfinder.output.ResultPages;
 import space.ranzeplay.containeritemfinder.service.ContainerSearchService;
 import space.ranzeplay.containeritemfinder.service.ContainerIndexService;
 
 public class ContainerCommandManager {
     private final ContainerSearchService searchService;
+    private final ContainerIndexService indexService;
     private final ContainerSearchCommand searchCommand;
     private final ContainerIndexCommand indexCommand;
     private final DatabaseCommands databaseCommands;
 
     public ContainerCommandManager(ContainerSearchService searchService, ContainerIndexService indexService) {
         this.searchService = searchService;
+        this.indexService = indexService;
         this.searchCommand = new ContainerSearchCommand(searchService);
         this.indexCommand = new ContainerIndexCommand(indexService);
         this.databaseCommands = new DatabaseCommands();
@@ -29,11 +34,33 @@ public class ContainerCommandManager {
                 CommandManager.literal("cif")
                     .then(CommandManager.literal("cancel")
                         .executes(context -> {
-                            Text result = searchService.cancelSearch(context.getSource());
-                            context.getSource().sendMessage(result);
+                            // Cancels the running search, or the running index when there is no search
+                            var source = context.getSource();
+                            Text result = source.getPlayer() != null && !searchService.hasActiveTask(source.getPlayer().getUuid())
+                                    ? indexService.cancelSearch(source)
+                                    : searchService.cancelSearch(source);
+                            source.sendMessage(result);
                             return 1;
                         }))
             );
+
+            // Register page command, shows more of the last search or index result
+            dispatcher.register(
+                CommandManager.literal("cif")
+                    .then(CommandManager.literal("page")
+                        .then(CommandManager.argument("page", IntegerArgumentType.integer(1))
+                            .executes(context -> {
+                                var source = context.getSource();
+                                if (!source.isExecutedByPlayer()) {
+                                    source.sendMessage(Text.translatable("info.cif.player_only").formatted(Formatting.RED));
+                                    return 0;
+                                }
+
+                                int page = IntegerArgumentType.getInteger(context, "page");
+                                source.sendMessage(ResultPages.show(source.getPlayer().getUuid(), page));
+                                return 1;
+                            })))
+            );
         });
 
         // Register search and index commands
@@ -7,6 +7,7 @@ import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.Vec3d;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import space.ranzeplay.containeritemfinder.Main;
+import space.ranzeplay.containeritemfinder.scan.ScanRegion;
 import space.ranzeplay.containeritemfinder.service.ContainerIndexService;
 import net.minecraft.text.Text;
 
@@ -22,18 +23,14 @@ public class ContainerIndexCommand {
             dispatcher.register(
                 CommandManager.literal("cif")
                     .then(CommandManager.literal("index")
-                        .then(CommandManager.argument("range", IntegerArgumentType.integer(1))
+                        .then(CommandManager.argument("range", IntegerArgumentType.integer(1, ScanRegion.MAX_RANGE))
                             .executes(context -> {
                                 int range = IntegerArgumentType.getInteger(context, "range");
                                 var source = context.getSource();
                                 var world = source.getWorld();
                                 var pos = source.getPosition();
-                                
-                                new Thread(() -> {
-                                    source.sendMessage(Text.translatable("info.cif.status.indexing"));
-                                    Text result = indexService.indexContainers(source, world, pos, range);
-                                    source.sendMessage(result);
-                                }).start();
+
+                                source.sendMessage(indexService.indexContainers(source, world, pos, range));
                                 return 1;
                             })
                         )
@@ -1,41 +1,114 @@
 package space.ranzeplay.containeritemfinder.command;
 
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import com.mojang.brigadier.exceptions.SimpleCommandExceptionType;
+import com.mojang.brigadier.suggestion.Suggestions;
+import com.mojang.brigadier.suggestion.SuggestionsBuilder;
 import net.fabricmc.fabric.api.command.v2.CommandRegistrationCallback;
-import net.minecraft.command.argument.ItemStackArgumentType;
+import net.minecraft.command.CommandRegistryAccess;
+import net.minecraft.command.CommandSource;
+import net.minecraft.registry.Registries;
 import net.minecraft.server.command.CommandManager;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.server.world.ServerWorld;
 import net.minecraft.util.math.Vec3d;
-import net.minecraft.item.Item;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import space.ranzeplay.containeritemfinder.Main;
+import space.ranzeplay.containeritemfinder.item.ItemMatcher;
+import space.ranzeplay.containeritemfinder.models.SearchTarget;
+import space.ranzeplay.containeritemfinder.scan.ScanRegion;
 import space.ranzeplay.containeritemfinder.service.ContainerSearchService;
 import net.minecraft.text.Text;
 import com.mojang.brigadier.context.CommandContext;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public class ContainerSearchCommand {
+    private static final SimpleCommandExceptionType NO_TARGETS =
+            new SimpleCommandExceptionType(Text.translatable("info.cif.instant.search.no_targets"));
+    private static final DynamicCommandExceptionType COUNT_WITHOUT_TARGET =
+            new DynamicCommandExceptionType(count -> Text.translatable("info.cif.instant.search.count_without_target", count));
+    private static final DynamicCommandExceptionType INVALID_COUNT =
+            new DynamicCommandExceptionType(count -> Text.translatable("info.cif.instant.search.invalid_count", count));
+
     private final ContainerSearchService searchService;
 
     public ContainerSearchCommand(ContainerSearchService searchService) {
         this.searchService = searchService;
     }
 
-    private void executeSearch(ServerCommandSource source, ServerWorld world, Vec3d pos, int range, Item item, int count) {
-        new Thread(() -> {
-            source.sendMessage(Text.translatable("info.cif.status.searching"));
-            Text result = searchService.searchChests(source, world, pos, range, item, count);
-            source.sendMessage(result);
-        }).start();
+    private void executeSearch(ServerCommandSource source, ServerWorld world, Vec3d pos, int range, List<SearchTarget> targets) {
+        source.sendMessage(searchService.searchChests(source, world, pos, range, targets));
     }
 
-    private int executeCommand(CommandContext<ServerCommandSource> context, int count) {
+    /**
+     * Parses a list of items or {@code #tags}, each optionally followed by the number of items needed,
+     * e.g. {@code iron_ingot 64 #minecraft:logs 128 diamond}.
+     * Component predicates may follow an item or tag, as long as they contain no spaces.
+     */
+    private static List<SearchTarget> parseTargets(String input, CommandRegistryAccess registryAccess) throws CommandSyntaxException {
+        List<SearchTarget> targets = new ArrayList<>();
+        ItemMatcher pendingMatcher = null;
+
+        for (String token : input.trim().split("\\s+")) {
+            if (token.isEmpty()) {
+                continue;
+            }
+
+            if (Character.isDigit(token.charAt(0))) {
+                if (pendingMatcher == null) {
+                    throw COUNT_WITHOUT_TARGET.create(token);
+                }
+
+                int count;
+                try {
+                    count = Integer.parseInt(token);
+                } catch (NumberFormatException e) {
+                    throw INVALID_COUNT.create(token);
+                }
+                if (count < 1) {
+                    throw INVALID_COUNT.create(token);
+                }
+
+                targets.add(new SearchTarget(pendingMatcher, count));
+                pendingMatcher = null;
+            } else {
+                if (pendingMatcher != null) {
+                    targets.add(new SearchTarget(pendingMatcher, -1));
+                }
+                pendingMatcher = ItemMatcher.parse(token, registryAccess);
+            }
+        }
+
+        if (pendingMatcher != null) {
+            targets.add(new SearchTarget(pendingMatcher, -1));
+        }
+
+        if (targets.isEmpty()) {
+            throw NO_TARGETS.create();
+        }
+        return targets;
+    }
+
+    // Suggests item ids for the word being typed
+    private static CompletableFuture<Suggestions> suggestTargets(CommandContext<ServerCommandSource> context, SuggestionsBuilder builder) {
+        String remaining = builder.getRemaining();
+        int wordStart = remaining.lastIndexOf(' ') + 1;
+        return CommandSource.suggestIdentifiers(Registries.ITEM.getIds(), builder.createOffset(builder.getStart() + wordStart));
+    }
+
+    private int executeCommand(CommandContext<ServerCommandSource> context, CommandRegistryAccess registryAccess) throws CommandSyntaxException {
         int range = IntegerArgumentType.getInteger(context, "range");
-        var item = ItemStackArgumentType.getItemStackArgument(context, "item");
+        var targets = parseTargets(StringArgumentType.getString(context, "targets"), registryAccess);
         var source = context.getSource();
         var world = source.getWorld();
         var pos = source.getPosition();
-        
-        executeSearch(source, world, pos, range, item.getItem(), count);
+
+        executeSearch(source, world, pos, range, targets);
         return 1;
     }
 
@@ -44,12 +117,10 @@ public class ContainerSearchCommand {
             dispatcher.register(
                 CommandManager.literal("cif")
                     .then(CommandManager.literal("search")
-                        .then(CommandManager.argument("range", IntegerArgumentType.integer(1))
-                            .then(CommandManager.argument("item", ItemStackArgumentType.itemStack(registryAccess))
-                                .executes(context -> executeCommand(context, -1))
-                                .then(CommandManager.argument("count", IntegerArgumentType.integer(1))
-                                    .executes(context -> executeCommand(context, IntegerArgumentType.getInteger(context, "count")))
-                                )
+                        .then(CommandManager.argument("range", IntegerArgumentType.integer(1, ScanRegion.MAX_RANGE))
+                            .then(CommandManager.argument("targets", StringArgumentType.greedyString())
+                                .suggests(ContainerSearchCommand::suggestTargets)
+                                .executes(context -> executeCommand(context, registryAccess))
                             )
                         )
                     )
@@ -12,8 +12,16 @@ import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import space.ranzeplay.containeritemfinder.Main;
+import space.ranzeplay.containeritemfinder.output.ResultPages;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletionException;
 
 public class DatabaseCommands {
+    // PostgreSQL state of a statement cancelled by its timeout
+    private static final String QUERY_CANCELED = "57014";
+
     public void register() {
         CommandRegistrationCallback.EVENT.register((dispatcher, registryAccess, environment) -> {
             dispatcher.register(
@@ -66,11 +74,35 @@ public class DatabaseCommands {
         } catch (IllegalArgumentException ignored) {
         }
 
-        Main.getTrackingService().searchTrackingItem(context.getSource(), context.getSource().getWorld(), context.getSource().getPosition(), range, item, count);
+        var source = context.getSource();
+        var server = source.getServer();
+        var worldId = source.getWorld().getRegistryKey().getValue().toString();
+        Main.getTrackingService().searchTrackingItem(worldId, source.getPosition(), range, item, count)
+                .whenComplete((lines, error) -> server.execute(() -> sendSearchResult(source, lines, error)));
 
         return 1;
     }
 
+    private static void sendSearchResult(ServerCommandSource source, List<Text> lines, Throwable error) {
+        if (error != null) {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause instanceof SQLException e && QUERY_CANCELED.equals(e.getSQLState())) {
+                source.sendMessage(Text.translatable("info.cif.db.search.timeout").formatted(Formatting.RED));
+            } else {
+                Main.getLogger().error("Failed to search tracked containers: ", cause);
+                source.sendMessage(Text.translatable("info.cif.db.search.failed").formatted(Formatting.RED));
+            }
+            return;
+        }
+
+        var player = source.getPlayer();
+        if (player != null) {
+            player.sendMessage(ResultPages.store(player.getUuid(), lines));
+        } else {
+            lines.forEach(source::sendMessage);
+        }
+    }
+
     private int executeStats(CommandContext<ServerCommandSource> context) {
         final var source = context.getSource();
         if (Main.getTrackingService().getLatestStatistics() == null) {
@@ -84,6 +116,33 @@ public class DatabaseCommands {
             source.sendMessage(Text.translatable("info.cif.stat.scanner.pre").append(Text.translatable("info.cif.stat.scanner.inactive").formatted(Formatting.YELLOW)));
         }
 
+        var areaProgress = Main.getTrackingService().getAreaProgress();
+        for (int i = 0; i < areaProgress.size(); i++) {
+            source.sendMessage(areaProgress.get(i).toText(i + 1));
+        }
+
+        int indexedContainers = Main.getTrackingService().getIndexedContainerCount();
+        if (indexedContainers >= 0) {
+            source.sendMessage(Text.translatable("info.cif.stat.index", indexedContainers));
+        } else if (Main.getTrackingService().isItemIndexFailed()) {
+            source.sendMessage(Text.translatable("info.cif.stat.index.failed").formatted(Formatting.RED));
+        } else {
+            source.sendMessage(Text.translatable("info.cif.stat.index.loading").formatted(Formatting.YELLOW));
+        }
+
+        var changeStats = Main.getTrackingService().getChangeStats();
+        source.sendMessage(Text.translatable("info.cif.stat.changes", changeStats.pending(), changeStats.hot(), changeStats.cold()));
+
+        var poolStats = Main.getTrackingService().getPoolStats();
+        if (poolStats != null) {
+            source.sendMessage(Text.translatable("info.cif.stat.pool",
+                    poolStats.active(), poolStats.idle(), poolStats.waiting()));
+            source.sendMessage(Text.translatable("info.cif.stat.pool.wait",
+                    String.format("%.1f", poolStats.averageWaitMillis()),
+                    String.format("%.1f", poolStats.maxWaitMillis()),
+                    poolStats.timeouts(), poolStats.leaks()));
+        }
+
         return 1;
     }
 }
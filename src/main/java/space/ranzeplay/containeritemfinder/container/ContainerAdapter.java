@@ -0,0 +1,22 @@
+package space.ranzeplay.containeritemfinder.container;
+
+import net.minecraft.block.entity.BlockEntity;
+import space.ranzeplay.containeritemfinder.item.NestedContentWalker;
+
+/**
+ * Reads the stacks of one kind of container block entity.
+ */
+@FunctionalInterface
+public interface ContainerAdapter {
+    /**
+     * Visits every non-empty stack stored directly in the container. Must be called on the server thread.
+     */
+    void forEachStack(BlockEntity blockEntity, NestedContentWalker.StackVisitor visitor);
+
+    /**
+     * Visits every stack in the container along with the stacks nested inside them.
+     */
+    default void walk(BlockEntity blockEntity, int nestedDepth, NestedContentWalker.StackVisitor visitor) {
+        forEachStack(blockEntity, stack -> NestedContentWalker.walk(stack, nestedDepth, visitor));
+    }
+}
@@ -0,0 +1,115 @@
+package space.ranzeplay.containeritemfinder.container;
+
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.block.entity.BlockEntityType;
+import net.minecraft.block.entity.LootableContainerBlockEntity;
+import net.minecraft.inventory.Inventory;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.Identifier;
+import net.minecraft.util.collection.DefaultedList;
+import space.ranzeplay.containeritemfinder.mixins.LockableContainerBlockEntityAccessor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps block entity types to the adapter used to read their contents, so scanners only need a
+ * single lookup per block entity to know whether and how it holds items.
+ * <p>
+ * Vanilla storage blocks are registered up front. Block entity types from other mods are
+ * resolved the first time they are seen: anything exposing an {@link Inventory} is treated as a
+ * container, and the answer is remembered for the whole type.
+ */
+public final class ContainerAdapterRegistry {
+    /**
+     * Reads the backing list of a lootable container directly. Going through
+     * {@link Inventory#getStack(int)} would roll the loot table of unopened structure chests.
+     */
+    public static final ContainerAdapter LOOTABLE = (blockEntity, visitor) -> {
+        DefaultedList<ItemStack> stacks = ((LockableContainerBlockEntityAccessor) blockEntity).invokeGetHeldStacks();
+        for (int i = 0; i < stacks.size(); i++) {
+            ItemStack stack = stacks.get(i);
+            if (!stack.isEmpty()) {
+                visitor.visit(stack);
+            }
+        }
+    };
+
+    public static final ContainerAdapter INVENTORY = (blockEntity, visitor) -> {
+        Inventory inventory = (Inventory) blockEntity;
+        for (int i = 0; i < inventory.size(); i++) {
+            ItemStack stack = inventory.getStack(i);
+            if (!stack.isEmpty()) {
+                visitor.visit(stack);
+            }
+        }
+    };
+
+    // Cached answer for types that hold no items
+    private static final ContainerAdapter NONE = (blockEntity, visitor) -> {
+    };
+
+    private static final Map<BlockEntityType<?>, ContainerAdapter> adapters = new ConcurrentHashMap<>();
+
+    static {
+        for (BlockEntityType<?> type : List.of(
+                BlockEntityType.CHEST,
+                BlockEntityType.TRAPPED_CHEST,
+                BlockEntityType.BARREL,
+                BlockEntityType.SHULKER_BOX,
+                BlockEntityType.HOPPER,
+                BlockEntityType.DISPENSER,
+                BlockEntityType.DROPPER,
+                BlockEntityType.CRAFTER
+        )) {
+            register(type, LOOTABLE);
+        }
+    }
+
+    private ContainerAdapterRegistry() {
+    }
+
+    public static void register(BlockEntityType<?> type, ContainerAdapter adapter) {
+        adapters.put(type, adapter);
+    }
+
+    /**
+     * Returns the adapter for a block entity, or null if it does not store items.
+     */
+    public static ContainerAdapter get(BlockEntity blockEntity) {
+        if (blockEntity == null) {
+            return null;
+        }
+
+        BlockEntityType<?> type = blockEntity.getType();
+        ContainerAdapter adapter = adapters.get(type);
+        if (adapter == null) {
+            adapter = resolve(blockEntity, type);
+            adapters.putIfAbsent(type, adapter);
+        }
+
+        return adapter == NONE ? null : adapter;
+    }
+
+    public static boolean isContainer(BlockEntity blockEntity) {
+        return get(blockEntity) != null;
+    }
+
+    private static ContainerAdapter resolve(BlockEntity blockEntity, BlockEntityType<?> type) {
+        // Vanilla blocks that are not registered above, such as furnaces, are not storage
+        Identifier id = Registries.BLOCK_ENTITY_TYPE.getId(type);
+        if (id == null || id.getNamespace().equals(Identifier.DEFAULT_NAMESPACE)) {
+            return NONE;
+        }
+
+        if (blockEntity instanceof LootableContainerBlockEntity) {
+            return LOOTABLE;
+        }
+        if (blockEntity instanceof Inventory) {
+            return INVENTORY;
+        }
+        return NONE;
+    }
+}
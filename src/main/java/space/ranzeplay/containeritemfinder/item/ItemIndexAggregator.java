@@ -0,0 +1,94 @@
+package space.ranzeplay.containeritemfinder.item;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Folds container contents into per-item totals as they are visited, so indexing keeps one
+ * entry per distinct item instead of one record per stack.
+ * <p>
+ * Tables are indexed by registry raw id. Call {@link #beginContainer()} before visiting the
+ * stacks of each container, so every item knows how many containers hold it.
+ */
+public class ItemIndexAggregator implements NestedContentWalker.StackVisitor {
+    public record Entry(Item item, long total, int containerCount) {
+    }
+
+    private long[] totals;
+    private int[] containerCounts;
+    // Number of the last container each item was seen in, 0 for never
+    private int[] lastContainer;
+    private final IntArrayList seenIds = new IntArrayList();
+    private int containerNumber = 0;
+    private long stackCount = 0;
+
+    public ItemIndexAggregator() {
+        int size = Registries.ITEM.size();
+        totals = new long[size];
+        containerCounts = new int[size];
+        lastContainer = new int[size];
+    }
+
+    public void beginContainer() {
+        containerNumber++;
+    }
+
+    @Override
+    public void visit(ItemStack stack) {
+        int id = Registries.ITEM.getRawId(stack.getItem());
+        if (id >= totals.length) {
+            grow(id + 1);
+        }
+
+        if (lastContainer[id] != containerNumber) {
+            lastContainer[id] = containerNumber;
+            if (containerCounts[id]++ == 0) {
+                seenIds.add(id);
+            }
+        }
+        totals[id] += stack.getCount();
+        stackCount++;
+    }
+
+    public boolean isEmpty() {
+        return seenIds.isEmpty();
+    }
+
+    public int getDistinctItemCount() {
+        return seenIds.size();
+    }
+
+    public long getStackCount() {
+        return stackCount;
+    }
+
+    /**
+     * Returns the {@code limit} items with the highest totals, highest first.
+     */
+    public List<Entry> top(int limit) {
+        int[] ids = seenIds.toIntArray();
+        IntArrays.quickSort(ids, (a, b) -> Long.compare(totals[b], totals[a]));
+
+        int count = Math.min(limit, ids.length);
+        List<Entry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int id = ids[i];
+            entries.add(new Entry(Registries.ITEM.get(id), totals[id], containerCounts[id]));
+        }
+        return entries;
+    }
+
+    private void grow(int minSize) {
+        int size = Math.max(minSize, totals.length * 2);
+        totals = Arrays.copyOf(totals, size);
+        containerCounts = Arrays.copyOf(containerCounts, size);
+        lastContainer = Arrays.copyOf(lastContainer, size);
+    }
+}
@@ -0,0 +1,98 @@
+package space.ranzeplay.containeritemfinder.item;
+
+import com.mojang.brigadier.StringReader;
+import com.mojang.brigadier.exceptions.CommandSyntaxException;
+import com.mojang.brigadier.exceptions.DynamicCommandExceptionType;
+import lombok.Getter;
+import net.minecraft.command.CommandRegistryAccess;
+import net.minecraft.command.argument.ItemPredicateArgumentType;
+import net.minecraft.item.Item;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+import net.minecraft.registry.RegistryKeys;
+import net.minecraft.registry.entry.RegistryEntry;
+import net.minecraft.registry.tag.TagKey;
+import net.minecraft.text.Text;
+import net.minecraft.util.Identifier;
+
+import java.util.BitSet;
+import java.util.function.Predicate;
+
+/**
+ * Matches item stacks against a single item or an item tag, optionally narrowed down by a
+ * component predicate such as {@code diamond_sword[enchantments~[...]]}.
+ * <p>
+ * Matchers are compiled once: a single item is compared by reference and a tag is turned into
+ * a bit set of registry raw ids. The component predicate, if any, only runs on stacks whose
+ * item already matched.
+ */
+public class ItemMatcher {
+    private static final DynamicCommandExceptionType UNKNOWN_ITEM =
+            new DynamicCommandExceptionType(id -> Text.translatable("info.cif.matcher.unknown_item", id));
+    private static final DynamicCommandExceptionType UNKNOWN_TAG =
+            new DynamicCommandExceptionType(id -> Text.translatable("info.cif.matcher.unknown_tag", id));
+
+    // Exactly one of item and rawIds is set
+    private final Item item;
+    private final BitSet rawIds;
+    private final Predicate<ItemStack> componentPredicate;
+    @Getter
+    private final String displayName;
+
+    private ItemMatcher(Item item, BitSet rawIds, Predicate<ItemStack> componentPredicate, String displayName) {
+        this.item = item;
+        this.rawIds = rawIds;
+        this.componentPredicate = componentPredicate;
+        this.displayName = displayName;
+    }
+
+    public static ItemMatcher of(Item item) {
+        return new ItemMatcher(item, null, null, item.getName().getString());
+    }
+
+    /**
+     * Parses an item id such as {@code diamond} or a tag such as {@code #minecraft:logs}, each optionally
+     * followed by component predicates in the same syntax as the vanilla item predicate argument.
+     */
+    public static ItemMatcher parse(String token, CommandRegistryAccess registryAccess) throws CommandSyntaxException {
+        int componentsStart = token.indexOf('[');
+        String base = componentsStart < 0 ? token : token.substring(0, componentsStart);
+
+        // Components are only parsed, and later tested, when the player asked for them
+        Predicate<ItemStack> componentPredicate = null;
+        if (componentsStart >= 0) {
+            componentPredicate = ItemPredicateArgumentType.itemPredicate(registryAccess).parse(new StringReader(token));
+        }
+
+        boolean isTag = base.startsWith("#");
+        String rawId = isTag ? base.substring(1) : base;
+        Identifier id = Identifier.tryParse(rawId);
+
+        if (isTag) {
+            if (id == null) {
+                throw UNKNOWN_TAG.create(rawId);
+            }
+
+            BitSet rawIds = new BitSet();
+            for (RegistryEntry<Item> entry : Registries.ITEM.iterateEntries(TagKey.of(RegistryKeys.ITEM, id))) {
+                rawIds.set(Registries.ITEM.getRawId(entry.value()));
+            }
+            if (rawIds.isEmpty()) {
+                throw UNKNOWN_TAG.create(rawId);
+            }
+            return new ItemMatcher(null, rawIds, componentPredicate, "#" + id);
+        }
+
+        if (id == null) {
+            throw UNKNOWN_ITEM.create(rawId);
+        }
+        Item item = Registries.ITEM.getOptionalValue(id).orElseThrow(() -> UNKNOWN_ITEM.create(rawId));
+        return new ItemMatcher(item, null, componentPredicate, item.getName().getString());
+    }
+
+    public boolean matches(ItemStack stack) {
+        Item stackItem = stack.getItem();
+        boolean itemMatches = item != null ? stackItem == item : rawIds.get(Registries.ITEM.getRawId(stackItem));
+        return itemMatches && (componentPredicate == null || componentPredicate.test(stack));
+    }
+}
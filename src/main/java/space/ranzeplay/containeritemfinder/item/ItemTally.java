@@ -0,0 +1,46 @@
+package space.ranzeplay.containeritemfinder.item;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMaps;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
+
+/**
+ * Item counts keyed by registry raw id, so adding a stack never hashes or compares strings.
+ */
+public class ItemTally {
+    private final Int2IntOpenHashMap counts = new Int2IntOpenHashMap();
+
+    public void add(ItemStack stack) {
+        if (!stack.isEmpty()) {
+            counts.addTo(Registries.ITEM.getRawId(stack.getItem()), stack.getCount());
+        }
+    }
+
+    /**
+     * An order independent fingerprint of the contents and the block holding them, to tell whether a
+     * stored container changed. Items are hashed by their stored string id, which unlike raw ids stays
+     * the same across restarts. Never 0, which stands for an unknown fingerprint.
+     */
+    public long contentHash(String block) {
+        long hash = HashCommon.mix((long) block.hashCode());
+        for (Int2IntMap.Entry entry : entries()) {
+            String id = Registries.ITEM.get(entry.getIntKey()).getTranslationKey();
+            hash += HashCommon.mix(((long) id.hashCode() << 32) | (entry.getIntValue() & 0xFFFFFFFFL));
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    public boolean isEmpty() {
+        return counts.isEmpty();
+    }
+
+    /**
+     * Raw id to count entries. Entry objects may be reused between iterations.
+     */
+    public Iterable<Int2IntMap.Entry> entries() {
+        return Int2IntMaps.fastIterable(counts);
+    }
+}
@@ -0,0 +1,55 @@
+package space.ranzeplay.containeritemfinder.item;
+
+import net.minecraft.component.DataComponentTypes;
+import net.minecraft.component.type.BundleContentsComponent;
+import net.minecraft.component.type.ContainerComponent;
+import net.minecraft.item.ItemStack;
+
+/**
+ * Visits a stack and, up to a depth limit, the stacks stored inside it: the contents of
+ * shulker boxes (or any item carrying container contents) and of bundles.
+ * <p>
+ * Nested stacks are handed straight to the visitor, so callers aggregate into their own
+ * accumulator without building a collection per nested item.
+ */
+public final class NestedContentWalker {
+    @FunctionalInterface
+    public interface StackVisitor {
+        void visit(ItemStack stack);
+    }
+
+    private NestedContentWalker() {
+    }
+
+    /**
+     * Visits {@code stack} if it is not empty, then its contents.
+     *
+     * @param maxDepth how many levels of nesting to descend into, 0 only visits the stack itself
+     */
+    public static void walk(ItemStack stack, int maxDepth, StackVisitor visitor) {
+        if (stack.isEmpty()) {
+            return;
+        }
+
+        visitor.visit(stack);
+        if (maxDepth > 0) {
+            walkContents(stack, maxDepth - 1, visitor);
+        }
+    }
+
+    private static void walkContents(ItemStack stack, int remainingDepth, StackVisitor visitor) {
+        ContainerComponent container = stack.get(DataComponentTypes.CONTAINER);
+        if (container != null) {
+            for (ItemStack innerStack : container.iterateNonEmpty()) {
+                walk(innerStack, remainingDepth, visitor);
+            }
+        }
+
+        BundleContentsComponent bundle = stack.get(DataComponentTypes.BUNDLE_CONTENTS);
+        if (bundle != null) {
+            for (ItemStack innerStack : bundle.iterate()) {
+                walk(innerStack, remainingDepth, visitor);
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package space.ranzeplay.containeritemfinder.mixins;
+
+import net.minecraft.block.entity.LockableContainerBlockEntity;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.collection.DefaultedList;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Invoker;
+
+// getHeldStacks is declared on LockableContainerBlockEntity, an invoker only resolves methods of its target class
+@Mixin(LockableContainerBlockEntity.class)
+public interface LockableContainerBlockEntityAccessor {
+    @Invoker("getHeldStacks")
+    DefaultedList<ItemStack> invokeGetHeldStacks();
+}
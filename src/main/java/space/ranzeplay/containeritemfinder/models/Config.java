@@ -13,13 +13,55 @@ public class Config {
         enableTracking = false;
         trackingAreas = List.of(new AABB(new Point(0,0,0), new Point(0,0,0), "minecraft:overworld"));
         databaseConnectionString = "";
+        trackingStore = "postgres";
+        trackingStorePath = "cif-tracking";
         refreshIntervalMinutes = 10080; // Default to 7 days
         indexThreads = 4;
+        scanTickBudgetMicros = 5000;
+        scanTargetMspt = 45.0;
+        searchThreads = 4;
+        parallelSearchMinRange = 128;
+        nestedSearchDepth = 2;
+        maxActiveScans = 2;
+        maxScanCost = 1024L * 1024 * 1024; // range 1024
+        largeScanCost = 128L * 128 * 128; // range 128
+        trackingBatchSize = 500;
+        trackingBulkLoad = true;
+        trackingMaxChangesPerTick = 64;
+        trackingCaptureBudgetMicros = 2000;
+        trackingChangeDelayMillis = 5_000;
+        trackingMaxChangeDelayMillis = 300_000;
+        databasePoolSize = 6;
+        databaseMaxLifetimeMinutes = 30;
+        databaseConnectionTimeoutMillis = 10_000;
+        databaseSearchTimeoutSeconds = 10;
+        databaseLeakThresholdMillis = 600_000; // 10 minutes
     }
 
     private boolean enableTracking;
     private List<AABB> trackingAreas;
     private int refreshIntervalMinutes;
     private String databaseConnectionString;
+    private String trackingStore;
+    private String trackingStorePath;
     private int indexThreads;
+    private int scanTickBudgetMicros;
+    private double scanTargetMspt;
+    private int searchThreads;
+    private int parallelSearchMinRange;
+    private int nestedSearchDepth;
+    private int maxActiveScans;
+    private long maxScanCost;
+    private long largeScanCost;
+    private int trackingBatchSize;
+    private boolean trackingBulkLoad;
+    private int trackingMaxChangesPerTick;
+    private long trackingCaptureBudgetMicros;
+    private long trackingChangeDelayMillis;
+    private long trackingMaxChangeDelayMillis;
+    private int databasePoolSize;
+    private int databaseMaxLifetimeMinutes;
+    private long databaseConnectionTimeoutMillis;
+    private long databaseLeakThresholdMillis;
+    private int databaseSearchTimeoutSeconds;
 }
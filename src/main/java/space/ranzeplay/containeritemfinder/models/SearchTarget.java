@@ -0,0 +1,17 @@
+package space.ranzeplay.containeritemfinder.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import space.ranzeplay.containeritemfinder.item.ItemMatcher;
+
+@Getter
+@AllArgsConstructor
+public class SearchTarget {
+    private final ItemMatcher matcher;
+    // Zero or less when every matching item in range should be found
+    private final int requiredCount;
+
+    public boolean hasRequiredCount() {
+        return requiredCount > 0;
+    }
+}
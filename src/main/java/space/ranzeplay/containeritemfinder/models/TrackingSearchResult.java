@@ -1,5 +1,6 @@
 package space.ranzeplay.containeritemfinder.models;
 
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
@@ -8,6 +9,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 
 @Getter
+@AllArgsConstructor
 public class TrackingSearchResult {
     private final int count;
     private final String world;
@@ -22,7 +24,7 @@ public class TrackingSearchResult {
         this.x = rs.getInt("x");
         this.y = rs.getInt("y");
         this.z = rs.getInt("z");
-        this.distance = rs.getDouble("dist");
+        this.distance = Math.sqrt(rs.getLong("dist_sq"));
     }
 
     public Text toText() {
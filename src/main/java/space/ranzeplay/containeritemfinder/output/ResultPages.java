@@ -0,0 +1,78 @@
+package space.ranzeplay.containeritemfinder.output;
+
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the last result of every player, split into pages of a few lines each.
+ */
+public final class ResultPages {
+    private static final int PAGE_SIZE = 10;
+    private static final Map<UUID, List<Text>> results = new ConcurrentHashMap<>();
+
+    private ResultPages() {
+    }
+
+    /**
+     * Replaces the stored result of a player and returns its first page.
+     */
+    public static Text store(UUID playerId, List<Text> lines) {
+        List<Text> copy = List.copyOf(lines);
+        results.put(playerId, copy);
+        return page(copy, 1);
+    }
+
+    /**
+     * Drops the stored result of a player, called when the player leaves the server.
+     */
+    public static void forget(UUID playerId) {
+        results.remove(playerId);
+    }
+
+    /**
+     * Returns a page of the last result of a player, counting from 1.
+     */
+    public static Text show(UUID playerId, int page) {
+        List<Text> lines = results.get(playerId);
+        if (lines == null) {
+            return Text.translatable("info.cif.page.none").formatted(Formatting.RED);
+        }
+
+        int pageCount = pageCount(lines);
+        if (page > pageCount) {
+            return Text.translatable("info.cif.page.out_of_range", pageCount).formatted(Formatting.RED);
+        }
+        return page(lines, page);
+    }
+
+    private static Text page(List<Text> lines, int page) {
+        int pageCount = pageCount(lines);
+        int from = (page - 1) * PAGE_SIZE;
+        int to = Math.min(lines.size(), from + PAGE_SIZE);
+
+        MutableText message = Text.empty();
+        for (int i = from; i < to; i++) {
+            if (i > from) {
+                message.append(Text.literal("\n"));
+            }
+            message.append(lines.get(i));
+        }
+
+        // Single page results read like before, without any paging hints
+        if (pageCount > 1) {
+            message.append(Text.literal("\n"))
+                    .append(Text.translatable("info.cif.page.footer", page, pageCount).formatted(Formatting.GRAY));
+        }
+        return message;
+    }
+
+    private static int pageCount(List<Text> lines) {
+        return Math.max(1, (lines.size() + PAGE_SIZE - 1) / PAGE_SIZE);
+    }
+}
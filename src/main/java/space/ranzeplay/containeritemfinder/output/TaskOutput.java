@@ -0,0 +1,123 @@
+package space.ranzeplay.containeritemfinder.output;
+
+import net.minecraft.server.network.ServerPlayerEntity;
+import net.minecraft.text.MutableText;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Buffers what a scan task tells its player, so a scan over a large base sends a bounded
+ * number of chat messages no matter how many containers it finds.
+ * <p>
+ * Notices about single containers are collected and sent as one message per interval,
+ * progress and notices together stop after a fixed number of messages, and the final
+ * result is split into pages that the player can browse with {@code /cif page <n>}.
+ * Only used on the server thread.
+ */
+public class TaskOutput {
+    private static final long NOTICE_INTERVAL = 2_000; // 2 seconds in milliseconds
+    private static final int MAX_NOTICE_LINES = 5;
+    private static final int MAX_MESSAGES = 20;
+
+    private final ServerPlayerEntity player;
+    private final List<Text> pendingNotices = new ArrayList<>(MAX_NOTICE_LINES);
+    // Notices of the current batch that did not fit in it
+    private int overflowNotices = 0;
+    private int sentMessages = 0;
+    private long lastFlushTime = System.currentTimeMillis();
+
+    public TaskOutput(ServerPlayerEntity player) {
+        this.player = player;
+    }
+
+    /**
+     * Queues a line to be sent with the next batch.
+     */
+    public void notice(Text line) {
+        if (isMuted()) {
+            return;
+        }
+
+        if (pendingNotices.size() < MAX_NOTICE_LINES) {
+            pendingNotices.add(line);
+        } else {
+            overflowNotices++;
+        }
+    }
+
+    /**
+     * Sends a progress message right away, unless the task already used up its messages.
+     */
+    public void progress(Text message) {
+        send(message);
+    }
+
+    /**
+     * Whether further notices and progress messages are dropped. Lets callers skip building them.
+     */
+    public boolean isMuted() {
+        return player == null || sentMessages >= MAX_MESSAGES;
+    }
+
+    /**
+     * Sends the pending notices once the batch interval has passed. Call once per step of the task.
+     */
+    public void tick() {
+        if (System.currentTimeMillis() - lastFlushTime >= NOTICE_INTERVAL) {
+            flush();
+        }
+    }
+
+    /**
+     * Sends the pending notices, then stores the result lines for paging and shows the first page.
+     */
+    public void finish(List<Text> resultLines) {
+        flush();
+        if (player != null) {
+            player.sendMessage(ResultPages.store(player.getUuid(), resultLines));
+        }
+    }
+
+    private void flush() {
+        lastFlushTime = System.currentTimeMillis();
+        if (pendingNotices.isEmpty()) {
+            return;
+        }
+
+        MutableText message = Text.empty();
+        for (int i = 0; i < pendingNotices.size(); i++) {
+            if (i > 0) {
+                message.append(Text.literal("\n"));
+            }
+            message.append(pendingNotices.get(i));
+        }
+        if (overflowNotices > 0) {
+            message.append(Text.literal("\n"))
+                    .append(Text.translatable("info.cif.output.more", overflowNotices).formatted(Formatting.GRAY));
+        }
+
+        pendingNotices.clear();
+        overflowNotices = 0;
+        send(message);
+    }
+
+    private void send(Text message) {
+        if (isMuted()) {
+            return;
+        }
+
+        sentMessages++;
+        if (sentMessages == MAX_MESSAGES) {
+            // Last message before going quiet, say so
+            player.sendMessage(Text.empty()
+                    .append(message)
+                    .append(Text.literal("\n"))
+                    .append(Text.translatable("info.cif.output.muted").formatted(Formatting.GRAY)));
+        } else {
+            player.sendMessage(message);
+        }
+    }
+}
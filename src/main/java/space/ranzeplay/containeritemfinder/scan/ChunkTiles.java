@@ -0,0 +1,67 @@
+package space.ranzeplay.containeritemfinder.scan;
+
+import net.minecraft.util.math.BlockBox;
+import net.minecraft.util.math.ChunkPos;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a box into tiles of chunk columns, the unit of work of tracking area rescans.
+ * Tiles are captured on the server thread one after another and persisted in parallel, so a
+ * dense part of an area is shared out instead of holding up a single thread.
+ * <p>
+ * Tiles are squares of chunks aligned to the chunk grid, so a position belongs to the same tile
+ * in every box, see {@link #tileKey(int, int)}.
+ */
+public final class ChunkTiles {
+    // Tiles are this many chunks wide, 4 for 16 chunk columns per tile
+    private static final int TILE_SHIFT = 2;
+
+    private ChunkTiles() {
+    }
+
+    public static int columnCount(BlockBox bounds) {
+        int spanX = (bounds.getMaxX() >> 4) - (bounds.getMinX() >> 4) + 1;
+        int spanZ = (bounds.getMaxZ() >> 4) - (bounds.getMinZ() >> 4) + 1;
+        return spanX * spanZ;
+    }
+
+    /**
+     * Identifies the tile holding a chunk.
+     */
+    public static long tileKey(int chunkX, int chunkZ) {
+        return ChunkPos.toLong(chunkX >> TILE_SHIFT, chunkZ >> TILE_SHIFT);
+    }
+
+    /**
+     * Returns the tiles covering {@code bounds}, each a list of chunk columns clipped to the box.
+     */
+    public static List<List<BlockBox>> tiles(BlockBox bounds) {
+        int minChunkX = bounds.getMinX() >> 4;
+        int minChunkZ = bounds.getMinZ() >> 4;
+        int maxChunkX = bounds.getMaxX() >> 4;
+        int maxChunkZ = bounds.getMaxZ() >> 4;
+
+        List<List<BlockBox>> tiles = new ArrayList<>();
+        for (int tileX = minChunkX >> TILE_SHIFT; tileX <= maxChunkX >> TILE_SHIFT; tileX++) {
+            for (int tileZ = minChunkZ >> TILE_SHIFT; tileZ <= maxChunkZ >> TILE_SHIFT; tileZ++) {
+                List<BlockBox> tile = new ArrayList<>();
+                int fromX = Math.max(minChunkX, tileX << TILE_SHIFT);
+                int toX = Math.min(maxChunkX, ((tileX + 1) << TILE_SHIFT) - 1);
+                int fromZ = Math.max(minChunkZ, tileZ << TILE_SHIFT);
+                int toZ = Math.min(maxChunkZ, ((tileZ + 1) << TILE_SHIFT) - 1);
+                for (int chunkX = fromX; chunkX <= toX; chunkX++) {
+                    for (int chunkZ = fromZ; chunkZ <= toZ; chunkZ++) {
+                        tile.add(new BlockBox(
+                                Math.max(bounds.getMinX(), chunkX << 4), bounds.getMinY(), Math.max(bounds.getMinZ(), chunkZ << 4),
+                                Math.min(bounds.getMaxX(), (chunkX << 4) + 15), bounds.getMaxY(), Math.min(bounds.getMaxZ(), (chunkZ << 4) + 15)
+                        ));
+                    }
+                }
+                tiles.add(tile);
+            }
+        }
+        return tiles;
+    }
+}
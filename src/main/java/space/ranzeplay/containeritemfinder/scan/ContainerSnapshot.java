@@ -0,0 +1,24 @@
+package space.ranzeplay.containeritemfinder.scan;
+
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.item.ItemStack;
+import net.minecraft.util.math.BlockPos;
+import space.ranzeplay.containeritemfinder.container.ContainerAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable copy of the non-empty stacks of a container, safe to read from any thread.
+ */
+public record ContainerSnapshot(BlockPos pos, long distanceSq, List<ItemStack> stacks) {
+    /**
+     * Copies the contents of a container. Must be called on the server thread.
+     */
+    public static ContainerSnapshot of(ContainerAdapter adapter, BlockEntity blockEntity, BlockPos pos, long distanceSq) {
+        List<ItemStack> stacks = new ArrayList<>();
+        adapter.forEachStack(blockEntity, stack -> stacks.add(stack.copy()));
+
+        return new ContainerSnapshot(pos, distanceSq, List.copyOf(stacks));
+    }
+}
@@ -0,0 +1,144 @@
+package space.ranzeplay.containeritemfinder.scan;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Counts matching items in a nearest-first list of container snapshots on a {@link ForkJoinPool}.
+ * Snapshots are split into fixed blocks. Once the completed blocks at the front of the list
+ * hold the required amount of every target, blocks further away are skipped by every worker.
+ */
+public class ParallelContainerCounter {
+    private static final int BLOCK_SIZE = 64;
+
+    public interface SnapshotCounter {
+        /**
+         * Adds the number of items matching each target to {@code counts[offset + target]}.
+         */
+        void count(ContainerSnapshot snapshot, int[] counts, int offset);
+    }
+
+    /**
+     * @param counts    matching item count per snapshot and target, at {@code snapshot * targets + target}.
+     *                  Only meaningful for the first {@code evaluated} snapshots
+     * @param evaluated length of the nearest-first prefix that was fully counted
+     */
+    public record Result(int[] counts, int evaluated) {
+    }
+
+    private final List<ContainerSnapshot> snapshots;
+    private final SnapshotCounter counter;
+    private final int[] requiredCounts;
+    private final int targets;
+    private final BooleanSupplier cancelled;
+
+    private final int[] counts;
+    private final long[] blockTotals;
+    private final boolean[] blockDone;
+    private final int blockCount;
+
+    // Guarded by this
+    private int completedPrefix = 0;
+    private final long[] prefixTotals;
+    // Index of the last block needed to reach the required counts
+    private volatile int cutoffBlock = Integer.MAX_VALUE;
+
+    private ParallelContainerCounter(List<ContainerSnapshot> snapshots, SnapshotCounter counter, int[] requiredCounts, BooleanSupplier cancelled) {
+        this.snapshots = snapshots;
+        this.counter = counter;
+        this.requiredCounts = requiredCounts;
+        this.targets = requiredCounts.length;
+        this.cancelled = cancelled;
+        this.counts = new int[snapshots.size() * targets];
+        this.blockCount = (snapshots.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        this.blockTotals = new long[blockCount * targets];
+        this.blockDone = new boolean[blockCount];
+        this.prefixTotals = new long[targets];
+    }
+
+    /**
+     * Counts the snapshots, blocking until all workers are done.
+     *
+     * @param requiredCounts per target, stop once this many items are found nearest-first.
+     *                       If any target has no count ({@code <= 0}), everything is counted
+     */
+    public static Result count(ForkJoinPool pool, List<ContainerSnapshot> snapshots, SnapshotCounter counter, int[] requiredCounts, BooleanSupplier cancelled) {
+        var instance = new ParallelContainerCounter(snapshots, counter, requiredCounts, cancelled);
+        if (instance.blockCount > 0) {
+            pool.invoke(instance.new BlockRange(0, instance.blockCount));
+        }
+        return instance.result();
+    }
+
+    private synchronized Result result() {
+        int evaluatedBlocks = cutoffBlock == Integer.MAX_VALUE ? completedPrefix : cutoffBlock + 1;
+        return new Result(counts, Math.min(snapshots.size(), evaluatedBlocks * BLOCK_SIZE));
+    }
+
+    private void countBlock(int block) {
+        if (block > cutoffBlock || cancelled.getAsBoolean()) {
+            return;
+        }
+
+        int from = block * BLOCK_SIZE;
+        int to = Math.min(snapshots.size(), from + BLOCK_SIZE);
+        long[] totals = new long[targets];
+        for (int i = from; i < to; i++) {
+            int offset = i * targets;
+            counter.count(snapshots.get(i), counts, offset);
+            for (int target = 0; target < targets; target++) {
+                totals[target] += counts[offset + target];
+            }
+        }
+
+        completeBlock(block, totals);
+    }
+
+    private synchronized void completeBlock(int block, long[] totals) {
+        System.arraycopy(totals, 0, blockTotals, block * targets, targets);
+        blockDone[block] = true;
+
+        // Advance over every block that is now complete at the front of the list
+        while (completedPrefix < blockCount && blockDone[completedPrefix] && cutoffBlock == Integer.MAX_VALUE) {
+            boolean satisfied = true;
+            for (int target = 0; target < targets; target++) {
+                prefixTotals[target] += blockTotals[completedPrefix * targets + target];
+                if (requiredCounts[target] <= 0 || prefixTotals[target] < requiredCounts[target]) {
+                    satisfied = false;
+                }
+            }
+
+            if (satisfied) {
+                cutoffBlock = completedPrefix;
+            }
+            completedPrefix++;
+        }
+    }
+
+    private class BlockRange extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        private BlockRange(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (from > cutoffBlock) {
+                return;
+            }
+
+            if (to - from == 1) {
+                countBlock(from);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(new BlockRange(from, mid), new BlockRange(mid, to));
+        }
+    }
+}
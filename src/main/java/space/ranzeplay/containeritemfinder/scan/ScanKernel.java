@@ -0,0 +1,205 @@
+package space.ranzeplay.containeritemfinder.scan;
+
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+import space.ranzeplay.containeritemfinder.container.ContainerAdapter;
+import space.ranzeplay.containeritemfinder.container.ContainerAdapterRegistry;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Finds the containers in a region and hands them to a visitor. This is the one traversal
+ * behind {@code /cif search}, {@code /cif index} and tracking scans.
+ * <p>
+ * Containers are found by walking the block entity map of every chunk overlapping the region,
+ * instead of probing each block position, and are handed out in true Euclidean order from the
+ * center: chunks are scanned in order of their closest column, and a container is only visited
+ * once no unscanned chunk can hold a nearer one. A visitor that stops early therefore never
+ * causes chunks beyond the last container it took to be scanned.
+ */
+public class ScanKernel {
+    @FunctionalInterface
+    public interface ContainerVisitor {
+        /**
+         * Called for every container in the region, nearest first.
+         *
+         * @return false to end the scan
+         */
+        boolean visit(BlockEntity blockEntity, ContainerAdapter adapter, BlockPos pos, long distanceSq);
+    }
+
+    private record Candidate(BlockEntity blockEntity, ContainerAdapter adapter, BlockPos pos, long distanceSq) {
+    }
+
+    private final World world;
+    private final ScanRegion region;
+    private final boolean loadChunks;
+    private final ContainerVisitor visitor;
+    private final int minChunkX;
+    private final int minChunkZ;
+    private final int chunkSpanZ;
+
+    // Each entry is packed as closestDistanceSq << 32 | index of the chunk in the bounds
+    private final long[] chunkOrder;
+    private int nextChunk = 0;
+    private final PriorityQueue<Candidate> pending = new PriorityQueue<>(Comparator.comparingLong(Candidate::distanceSq));
+
+    private volatile boolean cancelled = false;
+    private boolean finished = false;
+    private int containersVisited = 0;
+    private long lastDistanceSq = 0;
+
+    /**
+     * @param loadChunks whether chunks that are not loaded are loaded, otherwise they are skipped
+     */
+    public ScanKernel(World world, ScanRegion region, boolean loadChunks, ContainerVisitor visitor) {
+        this.world = world;
+        this.region = region;
+        this.loadChunks = loadChunks;
+        this.visitor = visitor;
+
+        BlockPos center = region.center();
+        this.minChunkX = region.bounds().getMinX() >> 4;
+        this.minChunkZ = region.bounds().getMinZ() >> 4;
+        int maxChunkX = region.bounds().getMaxX() >> 4;
+        int maxChunkZ = region.bounds().getMaxZ() >> 4;
+        this.chunkSpanZ = maxChunkZ - minChunkZ + 1;
+
+        long[] order = new long[(maxChunkX - minChunkX + 1) * chunkSpanZ];
+        int count = 0;
+        for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+            for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                // Skip chunks whose closest column is already out of range
+                long dx = axisDistance(center.getX(), chunkX << 4, (chunkX << 4) + 15);
+                long dz = axisDistance(center.getZ(), chunkZ << 4, (chunkZ << 4) + 15);
+                long closestSq = dx * dx + dz * dz;
+                if (closestSq <= region.rangeSq()) {
+                    // Clamping keeps it a lower bound, very large boxes are merely ordered less strictly
+                    long orderKey = Math.min(closestSq, Integer.MAX_VALUE);
+                    order[count++] = (orderKey << 32) | ((long) (chunkX - minChunkX) * chunkSpanZ + (chunkZ - minChunkZ));
+                }
+            }
+        }
+
+        this.chunkOrder = Arrays.copyOf(order, count);
+        Arrays.sort(chunkOrder);
+    }
+
+    /**
+     * Visits containers until the deadline (a {@link System#nanoTime()} value) passes.
+     * Every call makes progress: at least one chunk is scanned or one container visited.
+     *
+     * @return true once the scan is over, because the region is exhausted, the visitor stopped it or it was cancelled
+     */
+    public boolean step(long deadlineNanos) {
+        while (!finished) {
+            Candidate candidate = cancelled ? null : next(deadlineNanos);
+            if (candidate == null) {
+                if (!cancelled && nextChunk < chunkOrder.length) {
+                    // Ran out of time scanning empty chunks
+                    return false;
+                }
+                finished = true;
+                break;
+            }
+
+            // The container may have been broken since its chunk was scanned
+            if (candidate.blockEntity().isRemoved()) {
+                continue;
+            }
+
+            containersVisited++;
+            lastDistanceSq = candidate.distanceSq();
+            if (!visitor.visit(candidate.blockEntity(), candidate.adapter(), candidate.pos(), candidate.distanceSq())) {
+                finished = true;
+                break;
+            }
+
+            if (System.nanoTime() >= deadlineNanos) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Visits every container at once.
+     */
+    public void run() {
+        step(Long.MAX_VALUE);
+    }
+
+    /**
+     * Stops the scan before the next container. Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public int getContainersVisited() {
+        return containersVisited;
+    }
+
+    public long getLastDistanceSq() {
+        return lastDistanceSq;
+    }
+
+    // Returns the next nearest container in the region, or null once there are none left or the deadline
+    // passed before one was found. At least one chunk is scanned before giving up on the deadline
+    private Candidate next(long deadlineNanos) {
+        boolean scanned = false;
+        while (nextChunk < chunkOrder.length
+                && (pending.isEmpty() || pending.peek().distanceSq() > (chunkOrder[nextChunk] >>> 32))) {
+            if (scanned && System.nanoTime() >= deadlineNanos) {
+                return null;
+            }
+            scanChunk((int) chunkOrder[nextChunk++]);
+            scanned = true;
+        }
+
+        return pending.poll();
+    }
+
+    private void scanChunk(int index) {
+        int chunkX = minChunkX + index / chunkSpanZ;
+        int chunkZ = minChunkZ + index % chunkSpanZ;
+        WorldChunk chunk = loadChunks
+                ? world.getChunk(chunkX, chunkZ)
+                : world.getChunkManager().getWorldChunk(chunkX, chunkZ);
+        if (chunk == null) {
+            return;
+        }
+
+        for (BlockEntity blockEntity : chunk.getBlockEntities().values()) {
+            ContainerAdapter adapter = ContainerAdapterRegistry.get(blockEntity);
+            if (adapter == null) {
+                continue;
+            }
+
+            BlockPos pos = blockEntity.getPos();
+            long distanceSq = region.distanceSq(pos);
+            if (region.contains(pos, distanceSq)) {
+                pending.add(new Candidate(blockEntity, adapter, pos, distanceSq));
+            }
+        }
+    }
+
+    private static int axisDistance(int value, int min, int max) {
+        if (value < min) {
+            return min - value;
+        }
+        if (value > max) {
+            return value - max;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,43 @@
+package space.ranzeplay.containeritemfinder.scan;
+
+import net.minecraft.util.math.BlockBox;
+import net.minecraft.util.math.BlockPos;
+
+/**
+ * Part of a world to scan: the positions inside {@code bounds} that are at most
+ * {@code sqrt(rangeSq)} blocks away from {@code center}.
+ */
+public record ScanRegion(BlockPos center, BlockBox bounds, long rangeSq) {
+    // Largest range accepted by the /cif commands
+    public static final int MAX_RANGE = 2047;
+
+    public static ScanRegion sphere(BlockPos center, int range) {
+        BlockBox bounds = new BlockBox(
+                center.getX() - range, center.getY() - range, center.getZ() - range,
+                center.getX() + range, center.getY() + range, center.getZ() + range
+        );
+        return new ScanRegion(center, bounds, (long) range * range);
+    }
+
+    /**
+     * A box between two corners, both included, scanned outwards from its middle.
+     */
+    public static ScanRegion box(BlockPos corner1, BlockPos corner2) {
+        return box(BlockBox.create(corner1, corner2));
+    }
+
+    public static ScanRegion box(BlockBox bounds) {
+        return new ScanRegion(bounds.getCenter(), bounds, Long.MAX_VALUE);
+    }
+
+    public long distanceSq(BlockPos pos) {
+        long dx = pos.getX() - center.getX();
+        long dy = pos.getY() - center.getY();
+        long dz = pos.getZ() - center.getZ();
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    public boolean contains(BlockPos pos, long distanceSq) {
+        return distanceSq <= rangeSq && bounds.contains(pos);
+    }
+}
@@ -0,0 +1,277 @@
+package space.ranzeplay.containeritemfinder.scan;
+
+import lombok.Getter;
+import net.fabricmc.fabric.api.event.lifecycle.v1.ServerTickEvents;
+import net.minecraft.server.MinecraftServer;
+import space.ranzeplay.containeritemfinder.Main;
+import space.ranzeplay.containeritemfinder.models.Config;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Runs scan work on the server thread in small slices at the end of every tick, so that
+ * world access never happens off-thread and a long scan only costs a bounded part of each tick.
+ * <p>
+ * Only a few tasks run at once. The others wait in a queue that takes turns between players,
+ * so one player queueing several scans cannot hold back everyone else. Each task is given a
+ * cost, its range cubed: tasks above the maximum cost are rejected, and large tasks wait
+ * until no other large task is running.
+ */
+public class ScanScheduler {
+    private static final double TICK_TIME_SMOOTHING = 0.1;
+    // Even on an overloaded server, give tasks a slice at least once a second
+    private static final int MAX_YIELDED_TICKS = 20;
+
+    public interface TickTask {
+        /**
+         * Does as much work as possible before {@code deadlineNanos} (a {@link System#nanoTime()} value).
+         * At least one unit of work should be done per call, even if the deadline has already passed.
+         *
+         * @return true once the task has finished and should not be stepped again
+         */
+        boolean step(long deadlineNanos);
+
+        /**
+         * Called on the server thread when the task leaves the queue, before its first step.
+         *
+         * @param waitedMillis how long the task waited for a free slot, 0 if it started right away
+         */
+        default void started(long waitedMillis) {
+        }
+
+        /**
+         * Cancelled tasks are dropped from the queue without being started.
+         */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    public enum Admission {
+        STARTED,
+        QUEUED,
+        REJECTED
+    }
+
+    /**
+     * Outcome of a submission. For queued tasks, {@code queuePosition} is the number of waiting tasks
+     * that start before it, counting from 1.
+     */
+    public record SubmitResult(Admission admission, int queuePosition) {
+    }
+
+    private record QueuedTask(TickTask task, long cost, long submitTimeMillis, boolean waited) {
+    }
+
+    // Waiting tasks per player, players take turns in insertion order. Guarded by this
+    private final LinkedHashMap<UUID, ArrayDeque<QueuedTask>> waitingTasks = new LinkedHashMap<>();
+    private int waitingCount = 0;
+    // Tasks that were admitted but have not been picked up by the server thread yet. Guarded by this
+    private final ArrayDeque<QueuedTask> admittedTasks = new ArrayDeque<>();
+    private int activeCount = 0;
+    private int activeLargeCount = 0;
+
+    // Only touched on the server thread
+    private final ArrayDeque<QueuedTask> tasks = new ArrayDeque<>();
+
+    private final long budgetNanos;
+    private final double targetMspt;
+    private final int maxActiveScans;
+    @Getter
+    private final long maxScanCost;
+    private final long largeScanCost;
+
+    private long tickStartNanos;
+    @Getter
+    private double averageTickMillis;
+    private int yieldedTicks;
+
+    public ScanScheduler(Config config) {
+        this.budgetNanos = config.getScanTickBudgetMicros() * 1_000L;
+        this.targetMspt = config.getScanTargetMspt();
+        this.maxActiveScans = Math.max(1, config.getMaxActiveScans());
+        this.maxScanCost = config.getMaxScanCost();
+        this.largeScanCost = config.getLargeScanCost();
+    }
+
+    /**
+     * Cost of scanning a cube around a point, used for admission.
+     */
+    public static long estimateCost(int range) {
+        return (long) range * range * range;
+    }
+
+    public void register() {
+        ServerTickEvents.START_SERVER_TICK.register(server -> tickStartNanos = System.nanoTime());
+        ServerTickEvents.END_SERVER_TICK.register(this::runSlice);
+    }
+
+    /**
+     * Starts a task if a slot is free, otherwise queues it behind the tasks of other players.
+     */
+    public synchronized SubmitResult submit(UUID owner, long cost, TickTask task) {
+        if (cost > maxScanCost) {
+            return new SubmitResult(Admission.REJECTED, 0);
+        }
+
+        long now = System.currentTimeMillis();
+        QueuedTask immediate = new QueuedTask(task, cost, now, false);
+        if (waitingCount == 0 && canAdmit(immediate)) {
+            admit(immediate);
+            return new SubmitResult(Admission.STARTED, 0);
+        }
+
+        int position = queuePosition(owner);
+        waitingTasks.computeIfAbsent(owner, k -> new ArrayDeque<>()).add(new QueuedTask(task, cost, now, true));
+        waitingCount++;
+        return new SubmitResult(Admission.QUEUED, position);
+    }
+
+    // Position of a task added now for owner. Players take one task per turn, so with a backlog of n tasks it
+    // starts in turn n + 1: players ahead in the rotation get up to n + 1 tasks in before it, the others up to n
+    private int queuePosition(UUID owner) {
+        ArrayDeque<QueuedTask> ownTasks = waitingTasks.get(owner);
+        int backlog = ownTasks == null ? 0 : waitingOf(ownTasks);
+        int position = backlog + 1;
+        boolean ahead = true;
+        for (var entry : waitingTasks.entrySet()) {
+            if (entry.getKey().equals(owner)) {
+                ahead = false;
+                continue;
+            }
+            position += Math.min(waitingOf(entry.getValue()), ahead ? backlog + 1 : backlog);
+        }
+        return position;
+    }
+
+    private static int waitingOf(ArrayDeque<QueuedTask> playerTasks) {
+        int count = 0;
+        for (QueuedTask queued : playerTasks) {
+            if (!queued.task().isCancelled()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops a cancelled task that is still waiting, so it no longer holds back the tasks behind it.
+     */
+    public synchronized void withdraw(UUID owner, TickTask task) {
+        ArrayDeque<QueuedTask> playerTasks = waitingTasks.get(owner);
+        if (playerTasks == null) {
+            return;
+        }
+
+        int before = playerTasks.size();
+        playerTasks.removeIf(queued -> queued.task() == task);
+        waitingCount -= before - playerTasks.size();
+        if (playerTasks.isEmpty()) {
+            waitingTasks.remove(owner);
+        }
+    }
+
+    private boolean canAdmit(QueuedTask queued) {
+        return activeCount < maxActiveScans && (queued.cost() < largeScanCost || activeLargeCount == 0);
+    }
+
+    private void admit(QueuedTask queued) {
+        activeCount++;
+        if (queued.cost() >= largeScanCost) {
+            activeLargeCount++;
+        }
+        admittedTasks.add(queued);
+    }
+
+    private synchronized void release(QueuedTask queued) {
+        activeCount--;
+        if (queued.cost() >= largeScanCost) {
+            activeLargeCount--;
+        }
+    }
+
+    // Fills free slots, giving each waiting player a turn in order
+    private synchronized void admitWaiting() {
+        if (waitingCount == 0) {
+            return;
+        }
+
+        for (UUID owner : List.copyOf(waitingTasks.keySet())) {
+            if (activeCount >= maxActiveScans) {
+                break;
+            }
+            ArrayDeque<QueuedTask> playerTasks = waitingTasks.get(owner);
+
+            // Cancelled tasks never start
+            while (!playerTasks.isEmpty() && playerTasks.peek().task().isCancelled()) {
+                playerTasks.poll();
+                waitingCount--;
+            }
+
+            QueuedTask next = playerTasks.peek();
+            if (next != null && canAdmit(next)) {
+                playerTasks.poll();
+                waitingCount--;
+                admit(next);
+            }
+
+            // A player who just had a turn goes to the back of the line
+            waitingTasks.remove(owner);
+            if (!playerTasks.isEmpty()) {
+                waitingTasks.put(owner, playerTasks);
+            }
+        }
+    }
+
+    private void runSlice(MinecraftServer server) {
+        long now = System.nanoTime();
+        double tickMillis = (now - tickStartNanos) / 1_000_000.0;
+        averageTickMillis += (tickMillis - averageTickMillis) * TICK_TIME_SMOOTHING;
+
+        admitWaiting();
+        synchronized (this) {
+            QueuedTask admitted;
+            while ((admitted = admittedTasks.poll()) != null) {
+                admitted.task().started(admitted.waited() ? System.currentTimeMillis() - admitted.submitTimeMillis() : 0);
+                tasks.add(admitted);
+            }
+        }
+
+        if (tasks.isEmpty()) {
+            return;
+        }
+
+        // Give the time back while the server is behind
+        if (averageTickMillis > targetMspt && yieldedTicks < MAX_YIELDED_TICKS) {
+            yieldedTicks++;
+            return;
+        }
+        yieldedTicks = 0;
+
+        // Split the budget evenly between the tasks, leftovers go to the ones after
+        long deadline = now + budgetNanos;
+        int count = tasks.size();
+        for (int i = 0; i < count; i++) {
+            QueuedTask task = tasks.poll();
+            long sliceStart = System.nanoTime();
+            long slice = Math.max(0, deadline - sliceStart) / (count - i);
+
+            boolean finished;
+            try {
+                finished = task.task().step(sliceStart + slice);
+            } catch (Exception e) {
+                Main.getLogger().error("Scan task failed: ", e);
+                finished = true;
+            }
+
+            if (finished) {
+                release(task);
+            } else {
+                tasks.add(task);
+            }
+        }
+    }
+}
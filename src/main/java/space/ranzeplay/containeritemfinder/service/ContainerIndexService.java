@@ -1,177 +1,68 @@
 package space.ranzeplay.containeritemfinder.service;
 
 import net.minecraft.block.entity.BlockEntity;
-import net.minecraft.block.entity.ChestBlockEntity;
-import net.minecraft.block.entity.ShulkerBoxBlockEntity;
-import net.minecraft.item.ItemStack;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.server.network.ServerPlayerEntity;
 import net.minecraft.server.world.ServerWorld;
-import net.minecraft.text.MutableText;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
+import space.ranzeplay.containeritemfinder.container.ContainerAdapter;
+import space.ranzeplay.containeritemfinder.item.ItemIndexAggregator;
+import space.ranzeplay.containeritemfinder.models.Config;
+import space.ranzeplay.containeritemfinder.output.TaskOutput;
+import space.ranzeplay.containeritemfinder.scan.ScanKernel;
+import space.ranzeplay.containeritemfinder.scan.ScanRegion;
+import space.ranzeplay.containeritemfinder.scan.ScanScheduler;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public class ContainerIndexService {
     private static final Map<UUID, SearchTask> activeTasks = new ConcurrentHashMap<>();
+    // Number of distinct items listed in the result
+    private static final int MAX_RESULT_ITEMS = 100;
 
-    public record IndexedItem(String itemName, String id, int count, BlockPos containerPos) {
-    }
-
-    public static List<IndexedItem> indexItemsInContainer(BlockEntity container, BlockPos pos) {
-        List<IndexedItem> items = new ArrayList<>();
-
-        if (container instanceof ChestBlockEntity chest) {
-            for (int i = 0; i < chest.size(); i++) {
-                ItemStack stack = chest.getStack(i);
-                if (!stack.isEmpty()) {
-                    items.add(new IndexedItem(
-                            stack.getItem().getName().getString(),
-                            stack.getItem().getTranslationKey(),
-                            stack.getCount(),
-                            pos
-                    ));
-                }
-            }
-        } else if (container instanceof ShulkerBoxBlockEntity shulker) {
-            for (int i = 0; i < shulker.size(); i++) {
-                ItemStack stack = shulker.getStack(i);
-                if (!stack.isEmpty()) {
-                    items.add(new IndexedItem(
-                            stack.getItem().getName().getString(),
-                            stack.getItem().getTranslationKey(),
-                            stack.getCount(),
-                            pos
-                    ));
-                }
-            }
-        }
+    private final ScanScheduler scheduler;
+    private final int nestedSearchDepth;
 
-        return items;
+    public ContainerIndexService(ScanScheduler scheduler, Config config) {
+        this.scheduler = scheduler;
+        this.nestedSearchDepth = Math.max(0, config.getNestedSearchDepth());
     }
 
-    private static List<IndexedItem> indexContainersInRange(SearchTask task, ServerWorld world, BlockPos center, int range) {
-        List<IndexedItem> allItems = new ArrayList<>();
-        Set<BlockPos> visited = new HashSet<>();
-        Queue<BlockPos> queue = new LinkedList<>();
-        int totalContainersSearched = 0;
-
-        // Start with center position
-        queue.offer(center);
-        visited.add(center);
-
-        // BFS directions (6 directions: up, down, north, south, east, west)
-        int[][] directions = {
-                {0, 1, 0},  // up
-                {0, -1, 0}, // down
-                {0, 0, -1}, // north
-                {0, 0, 1},  // south
-                {1, 0, 0},  // east
-                {-1, 0, 0}  // west
-        };
-
-        int currentDistance = 0;
-        int nodesAtCurrentDistance = 1;
-        int nodesAtNextDistance = 0;
-
-        while (!queue.isEmpty() && !task.isCancelled()) {
-            BlockPos current = queue.poll();
-            assert current != null;
-            nodesAtCurrentDistance--;
-
-            // Check if current position has a container
-            BlockEntity blockEntity = world.getChunk(current).getBlockEntity(current);
-            if (blockEntity instanceof ChestBlockEntity || blockEntity instanceof ShulkerBoxBlockEntity) {
-                totalContainersSearched++;
-                allItems.addAll(indexItemsInContainer(blockEntity, current));
-
-                // Send message when a container is indexed
-                if (task.source != null) {
-                    task.source.sendMessage(task.createIndexedContainerMessage(current));
-                }
-            }
-
-            // If we haven't reached max range, explore neighbors
-            if (currentDistance < range) {
-                for (int[] dir : directions) {
-                    BlockPos nextPos = new BlockPos(
-                            current.getX() + dir[0],
-                            current.getY() + dir[1],
-                            current.getZ() + dir[2]
-                    );
-
-                    if (!visited.contains(nextPos)) {
-                        visited.add(nextPos);
-                        queue.offer(nextPos);
-                        nodesAtNextDistance++;
-                    }
-                }
-            }
-
-            if (nodesAtCurrentDistance == 0) {
-                currentDistance++;
-                nodesAtCurrentDistance = nodesAtNextDistance;
-                nodesAtNextDistance = 0;
-            }
-
-            // Update blocks searched count and send heartbeat
-            task.blocksSearched.incrementAndGet();
-            double distance = Math.sqrt(
-                    Math.pow(current.getX() - center.getX(), 2) + Math.pow(current.getY() - center.getY(), 2) + Math.pow(current.getZ() - center.getZ(), 2)
-            );
-            task.sendHeartbeat(distance);
-        }
-
-        task.totalContainersSearched = totalContainersSearched;
-        return allItems;
+    public static void indexItemsInContainer(ContainerAdapter adapter, BlockEntity container, int nestedDepth, ItemIndexAggregator aggregator) {
+        aggregator.beginContainer();
+        adapter.walk(container, nestedDepth, aggregator);
     }
 
-    private static Text createIndexResultMessage(List<IndexedItem> items, int totalContainersSearched) {
-        if (items.isEmpty()) {
-            return Text.translatable("info.cif.instant.index.not_found")
-                    .formatted(Formatting.RED);
+    private static List<Text> createIndexResultLines(ItemIndexAggregator aggregator, int totalContainersSearched) {
+        if (aggregator.isEmpty()) {
+            return List.of(Text.translatable("info.cif.instant.index.not_found")
+                    .formatted(Formatting.RED));
         }
 
-        MutableText message = Text.empty();
+        List<Text> lines = new ArrayList<>();
 
         // First line: Summary
-        message.append(Text.translatable("info.cif.instant.index.summary_1", items.size(), totalContainersSearched)
-                        .formatted(Formatting.GREEN))
-                .append(Text.literal("\n"));
-
-        // Group items by name and count total
-        Map<String, Integer> itemTotals = new HashMap<>();
-        Map<String, List<BlockPos>> itemLocations = new HashMap<>();
-
-        for (IndexedItem item : items) {
-            itemTotals.merge(item.itemName(), item.count(), Integer::sum);
-            itemLocations.computeIfAbsent(item.itemName(), k -> new ArrayList<>())
-                    .add(item.containerPos());
-        }
-
-        // Sort items by total count
-        List<Map.Entry<String, Integer>> sortedItems = new ArrayList<>(itemTotals.entrySet());
-        sortedItems.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        lines.add(Text.translatable("info.cif.instant.index.summary_1", aggregator.getStackCount(), totalContainersSearched)
+                        .formatted(Formatting.GREEN));
 
-        // Add each item's information
-        for (Map.Entry<String, Integer> entry : sortedItems) {
-            String itemName = entry.getKey();
-            int totalCount = entry.getValue();
-            List<BlockPos> locations = itemLocations.get(itemName);
+        // Then the items with the highest totals, names are only resolved for the lines we print
+        for (ItemIndexAggregator.Entry entry : aggregator.top(MAX_RESULT_ITEMS)) {
+            lines.add(Text.translatable("info.cif.instant.index.item_partial",
+                            entry.total(), entry.item().getName(), entry.containerCount())
+                    .formatted(Formatting.AQUA));
+        }
 
-            message.append(Text.translatable("info.cif.instant.index.item_partial",
-                            totalCount, itemName, locations.size())
-                    .formatted(Formatting.AQUA))
-                    .append(Text.literal("\n"));
+        int hiddenItems = aggregator.getDistinctItemCount() - MAX_RESULT_ITEMS;
+        if (hiddenItems > 0) {
+            lines.add(Text.translatable("info.cif.instant.index.more_items", hiddenItems)
+                    .formatted(Formatting.GRAY));
         }
 
-        return message;
+        return lines;
     }
 
     public Text indexContainers(ServerCommandSource source, ServerWorld world, Vec3d center, int range) {
@@ -187,16 +78,22 @@ public class ContainerIndexService {
             return Text.translatable("info.cif.instant.task_wip").formatted(Formatting.RED);
         }
 
-        SearchTask task = new SearchTask(player, world, center, range);
+        SearchTask task = new SearchTask(player, world, center, range, nestedSearchDepth);
         activeTasks.put(playerId, task);
+        var result = scheduler.submit(playerId, ScanScheduler.estimateCost(range), task);
+        return switch (result.admission()) {
+            case STARTED -> Text.translatable("info.cif.status.indexing");
+            case QUEUED -> Text.translatable("info.cif.queue.queued", result.queuePosition()).formatted(Formatting.YELLOW);
+            case REJECTED -> {
+                activeTasks.remove(playerId, task);
+                yield Text.translatable("info.cif.queue.rejected", range, (int) Math.cbrt(scheduler.getMaxScanCost()))
+                        .formatted(Formatting.RED);
+            }
+        };
+    }
 
-        try {
-            BlockPos blockCenter = new BlockPos((int) center.x, (int) center.y, (int) center.z);
-            List<IndexedItem> items = indexContainersInRange(task, world, blockCenter, range);
-            return createIndexResultMessage(items, task.totalContainersSearched);
-        } finally {
-            activeTasks.remove(playerId);
-        }
+    public boolean hasActiveTask(UUID playerId) {
+        return activeTasks.containsKey(playerId);
     }
 
     public Text cancelSearch(ServerCommandSource source) {
@@ -212,30 +109,39 @@ public class ContainerIndexService {
             return Text.translatable("info.cif.instant.no_active").formatted(Formatting.RED);
         }
 
-        return task.cancel();
+        Text message = task.cancel();
+        scheduler.withdraw(player.getUuid(), task);
+        return message;
     }
 
-    public static class SearchTask {
+    public static class SearchTask implements ScanScheduler.TickTask {
         private static final long HEARTBEAT_INTERVAL = 10_000; // 10 seconds in milliseconds
         private final ServerPlayerEntity source;
         private final ServerWorld world;
         private final Vec3d center;
         private final int range;
-        private final AtomicInteger blocksSearched = new AtomicInteger(0);
-        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final int nestedDepth;
         private long lastHeartbeatTime = 0;
         private int totalContainersSearched = 0;
+        private final TaskOutput output;
 
-        public SearchTask(ServerPlayerEntity source, ServerWorld world, Vec3d center, int range) {
+        private final ScanKernel kernel;
+        private final ItemIndexAggregator aggregator = new ItemIndexAggregator();
+
+        public SearchTask(ServerPlayerEntity source, ServerWorld world, Vec3d center, int range, int nestedDepth) {
             this.source = source;
             this.world = world;
             this.center = center;
             this.range = range;
+            this.nestedDepth = nestedDepth;
+            this.output = new TaskOutput(source);
+            BlockPos blockCenter = new BlockPos((int) center.x, (int) center.y, (int) center.z);
+            this.kernel = new ScanKernel(world, ScanRegion.sphere(blockCenter, range), false, this::indexContainer);
         }
 
-        private Text createHeartbeatMessage(int blocksSearched, double currentDistance) {
+        private Text createHeartbeatMessage(int containersSearched, double currentDistance) {
             return Text.translatable("info.cif.instant.index.heartbeat",
-                            blocksSearched, currentDistance)
+                            containersSearched, currentDistance)
                     .formatted(Formatting.GRAY);
         }
 
@@ -245,36 +151,77 @@ public class ContainerIndexService {
                     .formatted(Formatting.GRAY);
         }
 
-        private Text createCancelledMessage(int blocksSearched, double lastDistance) {
+        private Text createCancelledMessage(int containersSearched, double lastDistance) {
             return Text.translatable("info.cif.instant.index.cancel_info",
-                            blocksSearched, lastDistance)
+                            containersSearched, lastDistance)
                     .formatted(Formatting.YELLOW);
         }
 
-        private void sendHeartbeat(double currentDistance) {
-            if (source != null && !cancelled.get()) {
+        private void sendHeartbeat(long currentDistanceSq) {
+            if (!output.isMuted() && !kernel.isCancelled()) {
                 long currentTime = System.currentTimeMillis();
                 if (currentTime - lastHeartbeatTime >= HEARTBEAT_INTERVAL) {
-                    source.sendMessage(createHeartbeatMessage(blocksSearched.get(), currentDistance));
+                    output.progress(createHeartbeatMessage(kernel.getContainersVisited(), Math.sqrt(currentDistanceSq)));
                     lastHeartbeatTime = currentTime;
                 }
             }
         }
 
         public Text cancel() {
-            if (cancelled.compareAndSet(false, true) && source != null) {
-                return createCancelledMessage(blocksSearched.get(),
-                        Math.sqrt(
-                                Math.pow(center.x, 2) +
-                                        Math.pow(center.y, 2) +
-                                        Math.pow(center.z, 2)
-                        ));
+            boolean wasRunning = !kernel.isCancelled();
+            kernel.cancel();
+            if (wasRunning && source != null) {
+                return createCancelledMessage(kernel.getContainersVisited(), Math.sqrt(kernel.getLastDistanceSq()));
             }
             return Text.translatable("info.cif.instant.index.cancel").formatted(Formatting.YELLOW);
         }
 
+        @Override
+        public void started(long waitedMillis) {
+            if (waitedMillis > 0) {
+                output.progress(Text.translatable("info.cif.queue.started", String.format("%.1f", waitedMillis / 1000.0)).formatted(Formatting.GRAY));
+            }
+        }
+
+        @Override
         public boolean isCancelled() {
-            return cancelled.get();
+            return kernel.isCancelled();
+        }
+
+        @Override
+        public boolean step(long deadlineNanos) {
+            try {
+                if (!kernel.step(deadlineNanos)) {
+                    output.tick();
+                    return false;
+                }
+
+                output.finish(createIndexResultLines(aggregator, totalContainersSearched));
+                finish();
+                return true;
+            } catch (RuntimeException e) {
+                finish();
+                throw e;
+            }
+        }
+
+        private boolean indexContainer(BlockEntity blockEntity, ContainerAdapter adapter, BlockPos pos, long distanceSq) {
+            totalContainersSearched++;
+            indexItemsInContainer(adapter, blockEntity, nestedDepth, aggregator);
+
+            // Report the container with the next batch of notices
+            if (!output.isMuted()) {
+                output.notice(createIndexedContainerMessage(pos));
+            }
+
+            sendHeartbeat(distanceSq);
+            return true;
+        }
+
+        private void finish() {
+            if (source != null) {
+                activeTasks.remove(source.getUuid(), this);
+            }
         }
     }
-} 
\ No newline at end of file
+}
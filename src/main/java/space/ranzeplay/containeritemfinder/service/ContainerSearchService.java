@@ -1,9 +1,6 @@
 package space.ranzeplay.containeritemfinder.service;
 
 import net.minecraft.block.entity.BlockEntity;
-import net.minecraft.block.entity.ChestBlockEntity;
-import net.minecraft.block.entity.ShulkerBoxBlockEntity;
-import net.minecraft.item.Item;
 import net.minecraft.item.ItemStack;
 import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.server.network.ServerPlayerEntity;
@@ -13,131 +10,77 @@ import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.math.BlockPos;
 import net.minecraft.util.math.Vec3d;
+import space.ranzeplay.containeritemfinder.container.ContainerAdapter;
+import space.ranzeplay.containeritemfinder.item.NestedContentWalker;
+import space.ranzeplay.containeritemfinder.models.Config;
+import space.ranzeplay.containeritemfinder.output.TaskOutput;
+import space.ranzeplay.containeritemfinder.models.SearchTarget;
+import space.ranzeplay.containeritemfinder.scan.ContainerSnapshot;
+import space.ranzeplay.containeritemfinder.scan.ParallelContainerCounter;
+import space.ranzeplay.containeritemfinder.scan.ScanKernel;
+import space.ranzeplay.containeritemfinder.scan.ScanRegion;
+import space.ranzeplay.containeritemfinder.scan.ScanScheduler;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 public class ContainerSearchService {
     private static final Map<UUID, SearchTask> activeTasks = new ConcurrentHashMap<>();
 
-    private static int countItemsInStack(ItemStack stack, Item targetItem) {
-        if (stack.getItem().getTranslationKey().equals(targetItem.getTranslationKey())) {
-            return stack.getCount();
-        }
-        return 0;
-    }
+    private final ScanScheduler scheduler;
+    private final ForkJoinPool parallelPool;
+    private final int parallelSearchMinRange;
+    private final int nestedSearchDepth;
 
-    private static int countItemsInContainer(BlockEntity container, Item targetItem) {
-        int totalCount = 0;
+    public ContainerSearchService(ScanScheduler scheduler, Config config) {
+        this.scheduler = scheduler;
+        this.parallelSearchMinRange = config.getParallelSearchMinRange();
+        this.nestedSearchDepth = Math.max(0, config.getNestedSearchDepth());
+        this.parallelPool = config.getSearchThreads() > 1 ? new ForkJoinPool(config.getSearchThreads()) : null;
+    }
 
-        if (container instanceof ChestBlockEntity chest) {
-            for (int i = 0; i < chest.size(); i++) {
-                ItemStack stack = chest.getStack(i);
-                totalCount += countItemsInStack(stack, targetItem);
-            }
-        } else if (container instanceof ShulkerBoxBlockEntity shulker) {
-            for (int i = 0; i < shulker.size(); i++) {
-                ItemStack stack = shulker.getStack(i);
-                totalCount += countItemsInStack(stack, targetItem);
+    // Adds every matching stack, nested ones included, to the counts of one container
+    private record TargetCounter(List<SearchTarget> targets, int[] counts, int offset) implements NestedContentWalker.StackVisitor {
+        @Override
+        public void visit(ItemStack stack) {
+            for (int i = 0; i < targets.size(); i++) {
+                if (targets.get(i).getMatcher().matches(stack)) {
+                    counts[offset + i] += stack.getCount();
+                }
             }
         }
-
-        return totalCount;
     }
 
-    private static List<ContainerInfo> findContainersInRange(SearchTask task, ServerWorld world, BlockPos center, int range, Item targetItem, int requiredCount) {
-        List<ContainerInfo> containers = new ArrayList<>();
-        Set<BlockPos> visited = new HashSet<>();
-        Queue<BlockPos> queue = new LinkedList<>();
-        int totalFound = 0;
-        int totalContainersSearched = 0;
-
-        // Start with center position
-        queue.offer(center);
-        visited.add(center);
-
-        // BFS directions (6 directions: up, down, north, south, east, west)
-        int[][] directions = {
-                {0, 1, 0},  // up
-                {0, -1, 0}, // down
-                {0, 0, -1}, // north
-                {0, 0, 1},  // south
-                {1, 0, 0},  // east
-                {-1, 0, 0}  // west
-        };
-
-        int currentDistance = 0;
-        int nodesAtCurrentDistance = 1;
-        int nodesAtNextDistance = 0;
-
-        while (!queue.isEmpty() && (requiredCount <= 0 || totalFound < requiredCount) && !task.isCancelled()) {
-            BlockPos current = queue.poll();
-            assert current != null;
-            nodesAtCurrentDistance--;
-
-            // Check if current position has a container with target item
-            BlockEntity blockEntity = world.getChunk(current).getBlockEntity(current);
-            if (blockEntity instanceof ChestBlockEntity || blockEntity instanceof ShulkerBoxBlockEntity) {
-                totalContainersSearched++;
-                int itemCount = countItemsInContainer(blockEntity, targetItem);
-                if (itemCount > 0) {
-                    containers.add(new ContainerInfo(current, itemCount));
-                    totalFound += itemCount;
-
-                    // Send message when a container with target items is found
-                    if (task.source != null) {
-                        task.source.sendMessage(task.createFoundItemMessage(itemCount, current));
-                    }
-
-                    if (requiredCount > 0 && totalFound >= requiredCount) {
-                        break;
-                    }
-                }
-            }
+    private static void countItemsInContainer(ContainerAdapter adapter, BlockEntity container, List<SearchTarget> targets, int nestedDepth, int[] counts) {
+        adapter.walk(container, nestedDepth, new TargetCounter(targets, counts, 0));
+    }
 
-            // If we haven't reached max range, explore neighbors
-            if (currentDistance < range) {
-                for (int[] dir : directions) {
-                    BlockPos nextPos = new BlockPos(
-                            current.getX() + dir[0],
-                            current.getY() + dir[1],
-                            current.getZ() + dir[2]
-                    );
-
-                    if (!visited.contains(nextPos)) {
-                        visited.add(nextPos);
-                        queue.offer(nextPos);
-                        nodesAtNextDistance++;
-                    }
-                }
-            }
+    private static void countItemsInSnapshot(ContainerSnapshot snapshot, List<SearchTarget> targets, int nestedDepth, int[] counts, int offset) {
+        TargetCounter counter = new TargetCounter(targets, counts, offset);
+        for (ItemStack stack : snapshot.stacks()) {
+            NestedContentWalker.walk(stack, nestedDepth, counter);
+        }
+    }
 
-            if (nodesAtCurrentDistance == 0) {
-                currentDistance++;
-                nodesAtCurrentDistance = nodesAtNextDistance;
-                nodesAtNextDistance = 0;
+    private static boolean allTargetsSatisfied(List<SearchTarget> targets, int[] totals) {
+        for (int i = 0; i < targets.size(); i++) {
+            if (!targets.get(i).hasRequiredCount() || totals[i] < targets.get(i).getRequiredCount()) {
+                return false;
             }
-
-            // Update blocks searched count and send heartbeat
-            task.blocksSearched.incrementAndGet();
-            double distance = Math.sqrt(
-                    Math.pow(current.getX() - center.getX(), 2) + Math.pow(current.getY() - center.getY(), 2) + Math.pow(current.getZ() - center.getZ(), 2)
-            );
-            task.sendHeartbeat(distance);
         }
-
-        task.totalContainersSearched = totalContainersSearched;
-        return containers;
+        return true;
     }
 
-    private static Text createResultMessage(List<ContainerInfo> foundContainers, Item targetItem, int requiredCount, int totalFound, Vec3d center, int totalContainersSearched) {
+    private static List<Text> createResultLines(List<ContainerInfo> foundContainers, List<SearchTarget> targets, int[] totals, Vec3d center, int totalContainersSearched) {
         if (foundContainers.isEmpty()) {
-            return Text.literal(String.format("No containers found containing %s %s",
-                            requiredCount > 0 ? requiredCount + "x " : "",
-                            targetItem.getName().getString()))
-                        .formatted(Formatting.RED);
+            return List.of(Text.literal(String.format("No containers found containing %s",
+                            targets.stream()
+                                    .map(target -> (target.hasRequiredCount() ? target.getRequiredCount() + "x " : "") + target.getMatcher().getDisplayName())
+                                    .collect(Collectors.joining(", "))))
+                        .formatted(Formatting.RED));
         }
 
         // Calculate distances
@@ -151,47 +94,55 @@ public class ContainerSearchService {
             maxDistance = Math.max(maxDistance, distance);
         }
 
-        MutableText message = Text.empty();
-        
-        // First line: Item count and containers found
-        if (requiredCount > 0 && totalFound < requiredCount) {
-            message.append(Text.translatable(
-                                    "info.cif.instant.search.finish_1_1",
-                                    totalFound,
-                                    targetItem.getName().getString(),
-                                    requiredCount - totalFound,
-                                    foundContainers.size()
-                            )).formatted(Formatting.YELLOW);
-        } else {
-            message.append(Text.translatable(
-                                    "info.cif.instant.search.finish_1_2",
-                                    totalFound,
-                                    targetItem.getName().getString(),
-                                    foundContainers.size()
-                            )).formatted(Formatting.GREEN);
+        List<Text> lines = new ArrayList<>();
+
+        // First lines: Item count and containers found, one per target
+        for (int i = 0; i < targets.size(); i++) {
+            SearchTarget target = targets.get(i);
+            int containerCount = 0;
+            for (ContainerInfo container : foundContainers) {
+                if (container.itemCounts[i] > 0) {
+                    containerCount++;
+                }
+            }
+
+            if (target.hasRequiredCount() && totals[i] < target.getRequiredCount()) {
+                lines.add(Text.translatable(
+                                        "info.cif.instant.search.finish_1_1",
+                                        totals[i],
+                                        target.getMatcher().getDisplayName(),
+                                        target.getRequiredCount() - totals[i],
+                                        containerCount
+                                ).formatted(Formatting.YELLOW));
+            } else {
+                lines.add(Text.translatable(
+                                        "info.cif.instant.search.finish_1_2",
+                                        totals[i],
+                                        target.getMatcher().getDisplayName(),
+                                        containerCount
+                                ).formatted(Formatting.GREEN));
+            }
         }
-        message.append(Text.literal("\n"));
 
         // Second line: Search statistics
-        message.append(Text.translatable(
+        lines.add(Text.translatable(
                         "info.cif.instant.search.finish_2",
                         totalContainersSearched, minDistance, maxDistance
-                )).formatted(Formatting.GRAY);
-        message.append(Text.literal("\n"));
+                ).formatted(Formatting.GRAY));
 
-        // Third line: Container positions
-        message.append(Text.translatable("info.cif.instant.search.finish_3")
+        // Then container positions, a line each so they can be paged
+        lines.add(Text.translatable("info.cif.instant.search.finish_3")
                 .formatted(Formatting.GRAY));
         for (ContainerInfo container : foundContainers) {
-            message.append(Text.literal(String.format(" [%d, %d, %d]",
+            lines.add(Text.literal(String.format(" [%d, %d, %d]",
                             container.pos.getX(), container.pos.getY(), container.pos.getZ()))
                     .formatted(Formatting.AQUA));
         }
 
-        return message;
+        return lines;
     }
 
-    public Text searchChests(ServerCommandSource source, ServerWorld world, Vec3d center, int range, Item targetItem, int requiredCount) {
+    public Text searchChests(ServerCommandSource source, ServerWorld world, Vec3d center, int range, List<SearchTarget> targets) {
         if (!source.isExecutedByPlayer()) {
             return Text.translatable("info.cif.player_only").formatted(Formatting.RED);
         }
@@ -204,9 +155,24 @@ public class ContainerSearchService {
             return Text.translatable("info.cif.instant.task_wip").formatted(Formatting.RED);
         }
 
-        SearchTask task = new SearchTask(player, world, center, range, targetItem, requiredCount);
+        // Large searches copy the containers on the server thread and count them on the parallel pool
+        ForkJoinPool pool = parallelPool != null && range >= parallelSearchMinRange ? parallelPool : null;
+        SearchTask task = new SearchTask(player, world, center, range, targets, nestedSearchDepth, pool);
         activeTasks.put(playerId, task);
-        return task.execute();
+        var result = scheduler.submit(playerId, ScanScheduler.estimateCost(range), task);
+        return switch (result.admission()) {
+            case STARTED -> Text.translatable("info.cif.status.searching");
+            case QUEUED -> Text.translatable("info.cif.queue.queued", result.queuePosition()).formatted(Formatting.YELLOW);
+            case REJECTED -> {
+                activeTasks.remove(playerId, task);
+                yield Text.translatable("info.cif.queue.rejected", range, (int) Math.cbrt(scheduler.getMaxScanCost()))
+                        .formatted(Formatting.RED);
+            }
+        };
+    }
+
+    public boolean hasActiveTask(UUID playerId) {
+        return activeTasks.containsKey(playerId);
     }
 
     public Text cancelSearch(ServerCommandSource source) {
@@ -222,88 +188,247 @@ public class ContainerSearchService {
             return Text.translatable("info.cif.instant.no_active").formatted(Formatting.RED);
         }
 
-        return task.cancel();
+        Text message = task.cancel();
+        scheduler.withdraw(player.getUuid(), task);
+        return message;
     }
 
-    private record ContainerInfo(BlockPos pos, int itemCount) {
+    private record ContainerInfo(BlockPos pos, int[] itemCounts) {
     }
 
-    public static class SearchTask {
+    public static class SearchTask implements ScanScheduler.TickTask {
         private static final long HEARTBEAT_INTERVAL = 10_000; // 10 seconds in milliseconds
+        // Snapshots handed to the parallel pool at once, nearest first
+        private static final int SNAPSHOT_BATCH_SIZE = 256;
         private final ServerPlayerEntity source;
         private final ServerWorld world;
         private final Vec3d center;
         private final int range;
-        private final Item targetItem;
-        private final int requiredCount;
-        private final AtomicInteger blocksSearched = new AtomicInteger(0);
-        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final List<SearchTarget> targets;
+        private final int nestedDepth;
         private long lastHeartbeatTime = 0;
         private int totalContainersSearched = 0;
+        private final TaskOutput output;
+
+        private final ScanKernel kernel;
+        private final List<ContainerInfo> containers = new ArrayList<>();
+        // Running total per target, in the same order as targets
+        private final int[] totals;
+
+        private final ForkJoinPool parallelPool;
+        private final int maxBatchesInFlight;
+        private List<ContainerSnapshot> snapshotBatch = new ArrayList<>();
+        // Batches being counted on the parallel pool, nearest first
+        private final ArrayDeque<CountingBatch> countingBatches = new ArrayDeque<>();
+        private boolean scanDone = false;
+
+        private record CountingBatch(List<ContainerSnapshot> snapshots, CompletableFuture<ParallelContainerCounter.Result> result) {
+        }
 
-        public SearchTask(ServerPlayerEntity source, ServerWorld world, Vec3d center, int range, Item targetItem, int requiredCount) {
+        public SearchTask(ServerPlayerEntity source, ServerWorld world, Vec3d center, int range, List<SearchTarget> targets, int nestedDepth, ForkJoinPool parallelPool) {
             this.source = source;
             this.world = world;
             this.center = center;
             this.range = range;
-            this.targetItem = targetItem;
-            this.requiredCount = requiredCount;
+            this.targets = List.copyOf(targets);
+            this.nestedDepth = nestedDepth;
+            this.output = new TaskOutput(source);
+            this.totals = new int[targets.size()];
+            this.parallelPool = parallelPool;
+            this.maxBatchesInFlight = parallelPool == null ? 0 : parallelPool.getParallelism() * 2;
+            BlockPos blockCenter = new BlockPos((int) center.x, (int) center.y, (int) center.z);
+            // Large searches only copy the containers here, counting happens on the parallel pool
+            this.kernel = new ScanKernel(world, ScanRegion.sphere(blockCenter, range), false,
+                    parallelPool != null ? this::snapshotContainer : this::countContainer);
         }
 
-        private Text createHeartbeatMessage(int blocksSearched, double currentDistance) {
-            return Text.translatable("info.cif.instant.search.heartbeat", blocksSearched, currentDistance)
+        private Text createHeartbeatMessage(int containersSearched, double currentDistance) {
+            return Text.translatable("info.cif.instant.search.heartbeat", containersSearched, currentDistance)
                     .formatted(Formatting.GRAY);
         }
 
-        private Text createFoundItemMessage(int itemCount, BlockPos pos) {
-            return Text.translatable("info.cif.instant.search.found",
-                            itemCount, targetItem.getName().getString(),
-                            pos.getX(), pos.getY(), pos.getZ())
-                    .formatted(Formatting.GRAY);
+        private Text createFoundItemMessage(int[] itemCounts, BlockPos pos) {
+            MutableText message = Text.empty();
+            boolean first = true;
+            for (int i = 0; i < targets.size(); i++) {
+                if (itemCounts[i] <= 0) {
+                    continue;
+                }
+                if (!first) {
+                    message.append(Text.literal("\n"));
+                }
+                message.append(Text.translatable("info.cif.instant.search.found",
+                                itemCounts[i], targets.get(i).getMatcher().getDisplayName(),
+                                pos.getX(), pos.getY(), pos.getZ())
+                        .formatted(Formatting.GRAY));
+                first = false;
+            }
+            return message;
         }
 
-        private Text createCancelledMessage(int blocksSearched, double lastDistance) {
-            return Text.translatable("info.cif.instant.search.cancel_info", blocksSearched, lastDistance)
+        private Text createCancelledMessage(int containersSearched, double lastDistance) {
+            return Text.translatable("info.cif.instant.search.cancel_info", containersSearched, lastDistance)
                     .formatted(Formatting.YELLOW);
         }
 
-        private void sendHeartbeat(double currentDistance) {
-            if (source != null && !cancelled.get()) {
+        private void sendHeartbeat(long currentDistanceSq) {
+            if (!output.isMuted() && !kernel.isCancelled()) {
                 long currentTime = System.currentTimeMillis();
                 if (currentTime - lastHeartbeatTime >= HEARTBEAT_INTERVAL) {
-                    source.sendMessage(createHeartbeatMessage(blocksSearched.get(), currentDistance));
+                    output.progress(createHeartbeatMessage(kernel.getContainersVisited(), Math.sqrt(currentDistanceSq)));
                     lastHeartbeatTime = currentTime;
                 }
             }
         }
 
         public Text cancel() {
-            if (cancelled.compareAndSet(false, true) && source != null) {
-                return createCancelledMessage(blocksSearched.get(),
-                        Math.sqrt(
-                                Math.pow(center.x, 2) +
-                                        Math.pow(center.y, 2) +
-                                        Math.pow(center.z, 2)
-                        ));
+            boolean wasRunning = !kernel.isCancelled();
+            kernel.cancel();
+            if (wasRunning && source != null) {
+                return createCancelledMessage(kernel.getContainersVisited(), Math.sqrt(kernel.getLastDistanceSq()));
             }
             return Text.translatable("info.cif.instant.search.cancel").formatted(Formatting.YELLOW);
         }
 
+        @Override
+        public void started(long waitedMillis) {
+            if (waitedMillis > 0) {
+                output.progress(Text.translatable("info.cif.queue.started", String.format("%.1f", waitedMillis / 1000.0)).formatted(Formatting.GRAY));
+            }
+        }
+
+        @Override
         public boolean isCancelled() {
-            return cancelled.get();
+            return kernel.isCancelled();
         }
 
-        public Text execute() {
+        @Override
+        public boolean step(long deadlineNanos) {
             try {
-                BlockPos blockCenter = new BlockPos((int) center.x, (int) center.y, (int) center.z);
-                List<ContainerInfo> containers = findContainersInRange(this, world, blockCenter, range, targetItem, requiredCount);
-                int totalFound = containers.stream().mapToInt(ContainerInfo::itemCount).sum();
-                return createResultMessage(containers, targetItem, requiredCount, totalFound, center, totalContainersSearched);
-            } finally {
-                if (source != null) {
-                    activeTasks.remove(source.getUuid());
+                if (parallelPool != null) {
+                    return stepParallel(deadlineNanos);
+                }
+
+                if (!kernel.step(deadlineNanos)) {
+                    output.tick();
+                    return false;
+                }
+
+                output.finish(createResultLines(containers, targets, totals, center, totalContainersSearched));
+                finish();
+                return true;
+            } catch (RuntimeException e) {
+                finish();
+                throw e;
+            }
+        }
+
+        // Containers come nearest first, the search stops as soon as every target has enough
+        private boolean countContainer(BlockEntity blockEntity, ContainerAdapter adapter, BlockPos pos, long distanceSq) {
+            totalContainersSearched++;
+            int[] itemCounts = new int[targets.size()];
+            countItemsInContainer(adapter, blockEntity, targets, nestedDepth, itemCounts);
+            addContainer(pos, itemCounts);
+
+            sendHeartbeat(distanceSq);
+            return !allTargetsSatisfied(targets, totals);
+        }
+
+        private boolean snapshotContainer(BlockEntity blockEntity, ContainerAdapter adapter, BlockPos pos, long distanceSq) {
+            snapshotBatch.add(ContainerSnapshot.of(adapter, blockEntity, pos, distanceSq));
+            if (snapshotBatch.size() >= SNAPSHOT_BATCH_SIZE) {
+                submitBatch();
+            }
+            sendHeartbeat(distanceSq);
+            return true;
+        }
+
+        // Copies containers in nearest-first batches that are counted on the parallel pool while the scan goes on.
+        // Counted batches are taken in order and the scan stops once they hold enough of every target, so a count
+        // still ends the search early. Copying waits while the pool is behind.
+        private boolean stepParallel(long deadlineNanos) {
+            takeCountedBatches();
+            if (!scanDone && countingBatches.size() < maxBatchesInFlight && kernel.step(deadlineNanos)) {
+                scanDone = true;
+                submitBatch();
+            }
+
+            if (!scanDone || !countingBatches.isEmpty()) {
+                output.tick();
+                return false;
+            }
+
+            output.finish(createResultLines(containers, targets, totals, center, totalContainersSearched));
+            finish();
+            return true;
+        }
+
+        private void submitBatch() {
+            if (snapshotBatch.isEmpty()) {
+                return;
+            }
+
+            List<ContainerSnapshot> batch = snapshotBatch;
+            snapshotBatch = new ArrayList<>();
+            // What is still missing once the batches taken so far are added. Batches still in flight only lower that,
+            // so a batch that reaches it on its own is never needed past that point and its workers stop there
+            int[] requiredCounts = new int[targets.size()];
+            for (int i = 0; i < targets.size(); i++) {
+                if (targets.get(i).hasRequiredCount()) {
+                    requiredCounts[i] = Math.max(1, targets.get(i).getRequiredCount() - totals[i]);
+                }
+            }
+            var result = CompletableFuture.supplyAsync(() -> ParallelContainerCounter.count(parallelPool, batch,
+                    (snapshot, counts, offset) -> countItemsInSnapshot(snapshot, targets, nestedDepth, counts, offset),
+                    requiredCounts, kernel::isCancelled), parallelPool);
+            countingBatches.add(new CountingBatch(batch, result));
+        }
+
+        // Walks the counted batches at the front in order, so the same containers are picked as a sequential search
+        private void takeCountedBatches() {
+            while (!countingBatches.isEmpty() && countingBatches.peek().result().isDone()) {
+                CountingBatch batch = countingBatches.poll();
+                ParallelContainerCounter.Result result = batch.result().join();
+                int[] counts = result.counts();
+                for (int i = 0; i < result.evaluated() && !allTargetsSatisfied(targets, totals); i++) {
+                    totalContainersSearched++;
+                    int offset = i * targets.size();
+                    addContainer(batch.snapshots().get(i).pos(), Arrays.copyOfRange(counts, offset, offset + targets.size()));
+                }
+
+                if (allTargetsSatisfied(targets, totals)) {
+                    // Batches further away are not needed, the scan is over
+                    scanDone = true;
+                    snapshotBatch.clear();
+                    countingBatches.clear();
+                    return;
+                }
+            }
+        }
+
+        private void addContainer(BlockPos pos, int[] itemCounts) {
+            boolean found = false;
+            for (int i = 0; i < itemCounts.length; i++) {
+                if (itemCounts[i] > 0) {
+                    totals[i] += itemCounts[i];
+                    found = true;
+                }
+            }
+
+            if (found) {
+                containers.add(new ContainerInfo(pos, itemCounts));
+
+                // Report the container with the next batch of notices
+                if (!output.isMuted()) {
+                    output.notice(createFoundItemMessage(itemCounts, pos));
                 }
             }
         }
+
+        private void finish() {
+            if (source != null) {
+                activeTasks.remove(source.getUuid(), this);
+            }
+        }
     }
 }
@@ -1,510 +1,498 @@
 package space.ranzeplay.containeritemfinder.service;
 
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import lombok.Getter;
-import lombok.SneakyThrows;
-import net.minecraft.block.ShulkerBoxBlock;
-import net.minecraft.block.entity.BlockEntity;
-import net.minecraft.block.entity.ChestBlockEntity;
-import net.minecraft.block.entity.LootableContainerBlockEntity;
-import net.minecraft.block.entity.ShulkerBoxBlockEntity;
-import net.minecraft.component.DataComponentTypes;
-import net.minecraft.item.BlockItem;
+import net.fabricmc.loader.api.FabricLoader;
 import net.minecraft.item.Item;
-import net.minecraft.item.ItemStack;
+import net.minecraft.registry.Registries;
 import net.minecraft.server.MinecraftServer;
-import net.minecraft.server.command.ServerCommandSource;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 import net.minecraft.util.Identifier;
+import net.minecraft.util.math.BlockBox;
 import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
 import net.minecraft.util.math.Vec3d;
 import net.minecraft.world.World;
-import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import space.ranzeplay.containeritemfinder.Main;
 import space.ranzeplay.containeritemfinder.models.*;
+import space.ranzeplay.containeritemfinder.scan.ChunkTiles;
+import space.ranzeplay.containeritemfinder.tracking.AreaScanProgress;
+import space.ranzeplay.containeritemfinder.tracking.CaptureStage;
+import space.ranzeplay.containeritemfinder.tracking.ChangeQueue;
+import space.ranzeplay.containeritemfinder.tracking.ConnectionPool;
+import space.ranzeplay.containeritemfinder.tracking.ContainerCapture;
+import space.ranzeplay.containeritemfinder.tracking.EmbeddedTrackingStore;
+import space.ranzeplay.containeritemfinder.tracking.PostgresTrackingStore;
+import space.ranzeplay.containeritemfinder.tracking.TrackedItemIndex;
+import space.ranzeplay.containeritemfinder.tracking.TrackingStore;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.Consumer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class TrackingService {
-    private Connection connection;
+    private TrackingStore store;
     private final Logger logger;
     private final ThreadPoolExecutor scheduler;
-    private final ThreadPoolExecutor instantScanScheduler;
+    // Persist captured tiles and changed containers. Everything of one tile of the chunk grid goes through
+    // the same single thread lane, so writes of a position commit in the order they were captured
+    private final ExecutorService[] persistLanes;
+    private final CaptureStage captureStage;
+    private final long captureBudgetNanos;
+    // /dif search queries, mostly waiting on the store
+    private final ExecutorService searchExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    // Answers /dif search once loaded, kept in sync by the tracking writers
+    private final TrackedItemIndex itemIndex = new TrackedItemIndex();
+    // Containers listed by one /dif search at most
+    private static final int MAX_SEARCH_RESULTS = 500;
     private final List<AABB> trackingAreas;
+    private final int batchSize;
 
     private Date lastScan;
     private final long interval;
     @Getter
-    private boolean scanning;
+    private volatile boolean scanning;
 
-    private final ConcurrentLinkedQueue<Consumer<MinecraftServer>> instantScanQueue = new ConcurrentLinkedQueue<>();
-    private final ConcurrentLinkedQueue<DelayedLocationScan> delayedLocationScanQueue = new ConcurrentLinkedQueue<>();
+    private final ChangeQueue changeQueue;
+    private final int maxChangesPerTick;
+    // The last search index load failed, it is tried again after the next rescan
+    private volatile boolean itemIndexFailed = false;
 
     @Getter
     private TrackerScanStatistics latestStatistics;
-
-    private static final int LOCATION_SCAN_DELAY_MS = 5000;
+    // Progress of the running or last tracking area rescan, in the order of the tracking areas
+    @Getter
+    private volatile List<AreaScanProgress> areaProgress = List.of();
 
     public TrackingService(Config config) throws IOException, IllegalStateException {
         logger = Main.getLogger();
 
         trackingAreas = config.getTrackingAreas();
         interval = config.getRefreshIntervalMinutes();
+        batchSize = config.getTrackingBatchSize();
+        maxChangesPerTick = Math.max(1, config.getTrackingMaxChangesPerTick());
+        changeQueue = new ChangeQueue(config.getTrackingChangeDelayMillis(), config.getTrackingMaxChangeDelayMillis());
         lastScan = Date.from(Instant.EPOCH);
 
         scheduler = new ThreadPoolExecutor(Math.min(2, config.getIndexThreads()), config.getIndexThreads(), 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
-        instantScanScheduler = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+        persistLanes = new ExecutorService[Math.max(1, config.getIndexThreads())];
+        for (int i = 0; i < persistLanes.length; i++) {
+            persistLanes[i] = Executors.newSingleThreadExecutor();
+        }
+        captureStage = new CaptureStage(Math.max(0, config.getNestedSearchDepth()), persistLanes.length * 2);
+        captureBudgetNanos = config.getTrackingCaptureBudgetMicros() * 1_000L;
 
         try {
-            connection = DriverManager.getConnection(config.getDatabaseConnectionString());
-        } catch (Exception e) {
+            store = openStore(config);
+        } catch (SQLException e) {
             logger.error("Failed to connect to the database: ", e);
-            connection = null;
-            return;
-        }
-
-        // Migrate database schema
-        final var path = getClass().getClassLoader().getResource("init.sql");
-        if (path == null) {
-            logger.error("Failed to find database migration script.");
-            throw new IllegalStateException("Failed to find database migration script.");
+            store = null;
         }
+    }
 
-        final var stream = getClass().getClassLoader().getResourceAsStream("init.sql");
-        if (stream == null) {
-            logger.error("Failed to load database migration script.");
-            throw new IllegalStateException("Failed to load database migration script.");
+    private TrackingStore openStore(Config config) throws SQLException, IOException {
+        String kind = config.getTrackingStore();
+        if ("embedded".equalsIgnoreCase(kind)) {
+            return new EmbeddedTrackingStore(FabricLoader.getInstance().getGameDir().resolve(config.getTrackingStorePath()), logger);
         }
-
-        var reader = new BufferedReader(new InputStreamReader(stream));
-        var sql = reader.lines().reduce("", (a, b) -> a + "\n" + b);
-        try (var stmt = connection.createStatement()) {
-            stmt.execute(sql);
-        } catch (Exception e) {
-            logger.error("Failed to migrate database schema: ", e);
-            connection = null;
-            throw new IllegalStateException("Failed to migrate database schema: ", e);
-        } finally {
-            reader.close();
-            stream.close();
+        if ("postgres".equalsIgnoreCase(kind)) {
+            return new PostgresTrackingStore(config, logger);
         }
+        throw new IllegalStateException("Unknown tracking store: " + kind);
     }
 
     public void tryScan(MinecraftServer server) {
-        if (connection == null || new Date().getTime() - lastScan.getTime() < interval * 60 * 1000 || scanning) {
+        if (store == null || new Date().getTime() - lastScan.getTime() < interval * 60 * 1000 || scanning) {
             return;
         }
 
+        // Set before the scan starts, it spans many ticks and must not be started twice
+        scanning = true;
         scheduler.execute(() -> doScan(server));
     }
 
     public void manualScan(MinecraftServer server) {
-        if (connection == null || scanning) {
+        if (store == null || scanning) {
             return;
         }
 
+        scanning = true;
         scheduler.execute(() -> doScan(server));
     }
 
     private void doScan(MinecraftServer server) {
         try {
             logger.info("Beginning manual tracking area scan...");
-            scanning = true;
 
             var beginTime = new Date();
             scan(server);
             var endTime = new Date();
 
             var stats = generateLatestStatistics(beginTime, endTime);
-            lastScan = endTime;
             latestStatistics = stats;
 
             stats.log(logger);
-            scanning = false;
-        } catch (SQLException e) {
+        } catch (SQLException | RuntimeException e) {
             logger.error("Failed to scan tracking areas: ", e);
+        } finally {
+            // A failed scan waits for the next interval too, instead of being retried every tick
+            lastScan = new Date();
+            scanning = false;
+        }
+
+        if (itemIndexFailed) {
+            loadItemIndex();
         }
     }
 
-    private void scan(MinecraftServer server) throws SQLException {
-        var tasks = new ArrayList<Callable<Void>>();
+    private void scan(MinecraftServer server) {
+        var areaScans = new ArrayList<CompletableFuture<Void>>();
+        var progress = new ArrayList<AreaScanProgress>();
 
         for (AABB area : trackingAreas) {
-            tasks.add(() -> {
-                scanAABB(server, area);
-                return null;
-            });
-        }
+            World world = null;
+            for (var w : server.getWorlds()) {
+                if (w.getRegistryKey().getValue().equals(Identifier.tryParse(area.getWorld()))) {
+                    world = w;
+                    break;
+                }
+            }
 
-        try {
-            scheduler.invokeAll(tasks);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-    }
+            if (world == null) {
+                logger.warn("World {} not found, skipping tracking area", area.getWorld());
+                continue;
+            }
 
-    @SneakyThrows
-    public void searchTrackingItem(ServerCommandSource commandSource, World world, Vec3d center, Integer range, Item targetItem, Integer requiredCount) {
-        PreparedStatement statement;
-
-        if (range == null) {
-            statement = connection.prepareStatement(
-                    """
-                            SELECT *
-                            FROM (
-                                     SELECT items.count, containers.world, containers.x, containers.y, containers.z,
-                                            distance(containers.x, containers.y, containers.z, ?, ?, ?) AS dist
-                                     FROM items
-                                              JOIN containers ON items.container = containers.id
-                                     WHERE items.item = ?
-                                       AND containers.world = ?
-                                 ) sub
-                            ORDER BY sub.dist DESC
-                            """
-            );
-        } else {
-            statement = connection.prepareStatement(
-                    """
-                            SELECT *
-                            FROM (
-                                     SELECT items.count, containers.world, containers.x, containers.y, containers.z,
-                                            distance(containers.x, containers.y, containers.z, ?, ?, ?) AS dist
-                                     FROM items
-                                              JOIN containers ON items.container = containers.id
-                                     WHERE items.item = ?
-                                       AND containers.world = ?
-                                 ) sub
-                            WHERE sub.dist <= ?
-                            ORDER BY sub.dist DESC
-                            """
-            );
+            var bounds = BlockBox.create(area.getP1().toBlockPos(), area.getP2().toBlockPos());
+            var areaScanProgress = new AreaScanProgress(area.getWorld());
+            progress.add(areaScanProgress);
+            areaScans.add(scanArea(world, bounds, areaScanProgress));
         }
+        areaProgress = List.copyOf(progress);
 
+        CompletableFuture.allOf(areaScans.toArray(CompletableFuture[]::new)).join();
+    }
 
-        var itemId = targetItem.getTranslationKey();
+    /**
+     * Looks up the stored containers holding {@code targetItem}, nearest first, on the search executor.
+     * The result lines are built there too, so the caller only has to send them.
+     *
+     * @param range         maximum distance from {@code center}, null for no limit
+     * @param requiredCount stop once this many items are listed counting from the nearest container, null to list all
+     * @return fails with an {@link SQLException} if the store is unavailable or the query timed out
+     */
+    public CompletableFuture<List<Text>> searchTrackingItem(String worldId, Vec3d center, Integer range, Item targetItem, Integer requiredCount) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return queryTrackingItem(worldId, center, range, targetItem, requiredCount);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, searchExecutor);
+    }
 
-        statement.setInt(1, (int) center.getX());
-        statement.setInt(2, (int) center.getY());
-        statement.setInt(3, (int) center.getZ());
-        statement.setString(4, itemId);
-        statement.setString(5, world.getRegistryKey().getValue().toString());
-        if (range != null) {
-            statement.setInt(6, range);
+    private List<Text> queryTrackingItem(String worldId, Vec3d center, Integer range, Item targetItem, Integer requiredCount) throws SQLException {
+        if (store == null) {
+            throw new SQLException("Tracking store is not available");
         }
 
-        var rs = statement.executeQuery();
+        BlockPos centerPos = BlockPos.ofFloored(center);
+        // One more than shown, to tell whether the list was cut
+        List<TrackingSearchResult> results = itemIndex.isReady()
+                ? searchIndex(worldId, centerPos, range, targetItem, requiredCount, MAX_SEARCH_RESULTS + 1)
+                : store.search(worldId, centerPos, range, targetItem.getTranslationKey(), requiredCount, MAX_SEARCH_RESULTS + 1);
+
+        List<Text> lines = new ArrayList<>();
         var totalFound = 0;
-        if (requiredCount != null) {
-            rs.afterLast();
-            while (totalFound < requiredCount && rs.previous()) {
-                var result = new TrackingSearchResult(rs);
-                commandSource.sendMessage(result.toText());
-                totalFound += result.getCount();
-            }
+        for (TrackingSearchResult result : results.subList(0, Math.min(results.size(), MAX_SEARCH_RESULTS))) {
+            lines.add(result.toText());
+            totalFound += result.getCount();
+        }
+        if (results.size() > MAX_SEARCH_RESULTS) {
+            lines.add(Text.translatable("info.cif.db.search.truncated", MAX_SEARCH_RESULTS).formatted(Formatting.GRAY));
+        }
 
-            if (totalFound < requiredCount) {
-                commandSource.sendMessage(
-                        Text.translatable("info.cif.db.scan.not_enough", totalFound, requiredCount).formatted(Formatting.RED));
-            } else {
-                commandSource.sendMessage(Text.translatable("info.cif.db.scan.complete", totalFound).formatted(Formatting.GREEN));
-            }
+        if (requiredCount != null && totalFound < requiredCount) {
+            lines.add(Text.translatable("info.cif.db.scan.not_enough", totalFound, requiredCount).formatted(Formatting.RED));
         } else {
-            while (rs.next()) {
-                var result = new TrackingSearchResult(rs);
-                commandSource.sendMessage(result.toText());
-                totalFound += result.getCount();
-            }
-
-            commandSource.sendMessage(Text.translatable("info.cif.db.scan.complete", totalFound).formatted(Formatting.GREEN));
+            lines.add(Text.translatable("info.cif.db.scan.complete", totalFound).formatted(Formatting.GREEN));
         }
 
         if (scanning) {
-            commandSource.sendMessage(Text.translatable("info.cif.db.still_scanning").formatted(Formatting.YELLOW));
+            lines.add(Text.translatable("info.cif.db.still_scanning").formatted(Formatting.YELLOW));
         }
+        return lines;
     }
 
-    private TrackerScanStatistics generateLatestStatistics(Date begin, Date end) throws SQLException {
-        var duration = Duration.between(begin.toInstant(), end.toInstant());
-
-        int containerCount = -1;
-        var containerCountStmt = connection.prepareStatement("SELECT COUNT(*) FROM containers");
-        var containerCountRs = containerCountStmt.executeQuery();
-        if (containerCountRs.next()) {
-            containerCount = containerCountRs.getInt(1);
+    private List<TrackingSearchResult> searchIndex(String worldId, BlockPos center, Integer range, Item targetItem, Integer requiredCount, int limit) {
+        var hits = itemIndex.nearest(worldId, Registries.ITEM.getRawId(targetItem), center, range, requiredCount, limit);
+        List<TrackingSearchResult> results = new ArrayList<>(hits.size());
+        for (var hit : hits) {
+            results.add(new TrackingSearchResult(hit.count(), worldId, hit.pos().getX(), hit.pos().getY(), hit.pos().getZ(), Math.sqrt(hit.distanceSq())));
         }
-        containerCountStmt.close();
+        return results;
+    }
 
-        int itemCount = -1;
-        var itemCountStmt = connection.prepareStatement("SELECT SUM(count) FROM items");
-        var itemCountRs = itemCountStmt.executeQuery();
-        if (itemCountRs.next()) {
-            itemCount = itemCountRs.getInt(1);
+    /**
+     * Fills the search index from the store in the background, searches query the store until it is done.
+     * Called once the server started, so every item is registered, and after a rescan if the last load failed.
+     */
+    public void loadItemIndex() {
+        if (store == null) {
+            return;
         }
-        itemCountStmt.close();
 
-        return new TrackerScanStatistics(
-                trackingAreas.size(),
-                containerCount,
-                itemCount,
-                duration
-        );
-    }
+        itemIndexFailed = false;
 
-    private void scanAABB(MinecraftServer server, AABB area) throws SQLException {
-        var worlds = server.getWorlds();
-        World world = null;
-        for (var w : worlds) {
-            if (w.getRegistryKey().getValue().equals(Identifier.tryParse(area.getWorld()))) {
-                world = w;
-                break;
+        scheduler.execute(() -> {
+            Object2IntOpenHashMap<String> itemIds = new Object2IntOpenHashMap<>();
+            itemIds.defaultReturnValue(-1);
+            for (Item item : Registries.ITEM) {
+                itemIds.put(item.getTranslationKey(), Registries.ITEM.getRawId(item));
             }
-        }
 
-        if (world == null) {
-            logger.warn("World {} not found, skipping tracking area", area.getWorld());
-            return;
-        }
+            itemIndex.beginLoad();
+            try {
+                store.forEachItem((world, pos, item, count) -> {
+                    int itemId = itemIds.getInt(item);
+                    // Items of removed mods are left out
+                    if (itemId >= 0) {
+                        itemIndex.load(world, pos, itemId, count);
+                    }
+                });
+                itemIndex.finishLoad();
+                logger.info("Loaded {} tracked containers into the search index", itemIndex.getContainerCount());
+            } catch (SQLException | RuntimeException e) {
+                itemIndex.abortLoad();
+                itemIndexFailed = true;
+                logger.error("Failed to load the tracking search index, searches keep using the tracking store until it is loaded after the next rescan: ", e);
+            }
+        });
+    }
 
-        var fromX = Math.min(area.getP1().getX(), area.getP2().getX());
-        var toX = Math.max(area.getP1().getX(), area.getP2().getX());
+    public int getIndexedContainerCount() {
+        return itemIndex.isReady() ? itemIndex.getContainerCount() : -1;
+    }
 
-        var fromY = Math.min(area.getP1().getY(), area.getP2().getY());
-        var toY = Math.max(area.getP1().getY(), area.getP2().getY());
+    /**
+     * @return the last search index load failed and has not been tried again yet
+     */
+    public boolean isItemIndexFailed() {
+        return itemIndexFailed;
+    }
 
-        var fromZ = Math.min(area.getP1().getZ(), area.getP2().getZ());
-        var toZ = Math.max(area.getP1().getZ(), area.getP2().getZ());
+    private TrackerScanStatistics generateLatestStatistics(Date begin, Date end) throws SQLException {
+        var duration = Duration.between(begin.toInstant(), end.toInstant());
 
-        // Remove all existing entries in the area
+        var totals = store.getTotals();
 
-        var dbClearStmt = connection.prepareStatement(
-                "DELETE FROM containers WHERE world = ? AND x >= ? AND x <= ? AND y >= ? AND y <= ? AND z >= ? AND z <= ?"
+        return new TrackerScanStatistics(
+                trackingAreas.size(),
+                totals.containers(),
+                totals.items(),
+                duration
         );
+    }
 
-        dbClearStmt.setString(1, area.getWorld());
-        dbClearStmt.setInt(2, fromX);
-        dbClearStmt.setInt(3, toX);
-        dbClearStmt.setInt(4, fromY);
-        dbClearStmt.setInt(5, toY);
-        dbClearStmt.setInt(6, fromZ);
-        dbClearStmt.setInt(7, toZ);
-        dbClearStmt.execute();
-        dbClearStmt.close();
-
-        for (int x = fromX; x <= toX; x++) {
-            for (int y = fromY; y <= toY; y++) {
-                for (int z = fromZ; z <= toZ; z++) {
-                    scanOne(world, new BlockPos(x, y, z), false);
+    /**
+     * Rescans an area: its tiles are captured on the server tick, then diffed against the store
+     * and written on the persist lane of each tile.
+     *
+     * @return completes once every tile is persisted
+     */
+    private CompletableFuture<Void> scanArea(World world, BlockBox bounds, AreaScanProgress progress) {
+        String worldId = world.getRegistryKey().getValue().toString();
+        var tiles = ChunkTiles.tiles(bounds);
+        var done = new CompletableFuture<Void>();
+        var remaining = new AtomicInteger(tiles.size());
+
+        progress.start(ChunkTiles.columnCount(bounds));
+        for (List<BlockBox> tile : tiles) {
+            BlockBox first = tile.getFirst();
+            captureStage.submitTile(world, tile, captures -> laneOf(worldId, first.getMinX() >> 4, first.getMinZ() >> 4).execute(() -> {
+                try {
+                    persistTile(worldId, tile, captures, progress);
+                } finally {
+                    captureStage.tileDone();
+                    if (remaining.decrementAndGet() == 0) {
+                        done.complete(null);
+                    }
                 }
-            }
+            }));
         }
+        return done;
     }
 
-    public void scanOne(World world, BlockPos pos, boolean removeExisting) throws SQLException {
-        if(removeExisting) {
-            removeBlockFromTracking(pos, world);
-        }
-
-        var blockState = world.getBlockState(pos);
-        var blockEntity = world.getChunk(pos).getBlockEntity(pos);
-
-        HashMap<String, Integer> items = tryGetContainerItems(blockEntity);
-        if (items.isEmpty()) {
-            return;
-        }
-
-        // Insert new entry
-        var dbInsertStmt = connection.prepareStatement(
-                "INSERT INTO containers (world, x, y, z, block) VALUES (?, ?, ?, ?, ?) RETURNING id"
-        );
-        dbInsertStmt.setString(1, world.getRegistryKey().getValue().toString());
-        dbInsertStmt.setInt(2, pos.getX());
-        dbInsertStmt.setInt(3, pos.getY());
-        dbInsertStmt.setInt(4, pos.getZ());
-        dbInsertStmt.setString(5, blockState.getBlock().getTranslationKey());
-        var dbInsertRs = dbInsertStmt.executeQuery();
-        if (!dbInsertRs.next()) {
-            dbInsertStmt.close();
-            return;
-        }
+    /**
+     * Brings the stored containers of a captured tile up to date in one transaction, through the worker's
+     * own writer. Only containers whose fingerprint changed are written, and stored containers that were
+     * not captured again are removed.
+     */
+    private void persistTile(String worldId, List<BlockBox> columns, List<ContainerCapture> captures, AreaScanProgress progress) {
+        int written = 0;
+        int removed = 0;
+        try {
+            // Position to content fingerprint of the containers stored within the columns. Loaded before the
+            // writer is opened, so a worker never holds a connection while waiting for another one
+            Long2LongOpenHashMap stored = store.loadContentHashes(worldId, BlockBox.encompass(columns).orElseThrow());
+
+            try (var writer = store.openWriter(batchSize, itemIndex, true)) {
+                for (ContainerCapture capture : captures) {
+                    long contentHash = capture.items().contentHash(capture.block());
+                    long key = capture.pos().asLong();
+                    boolean known = stored.containsKey(key);
+                    if (stored.remove(key) == contentHash && known) {
+                        continue;
+                    }
 
-        var containerId = (UUID) dbInsertRs.getObject("id");
+                    writer.put(worldId, capture.pos(), capture.block(), capture.items(), contentHash);
+                    written++;
+                }
 
-        dbInsertStmt.close();
+                // Whatever was stored but not captured again is gone. The query box may reach past the columns
+                var mutablePos = new BlockPos.Mutable();
+                for (long key : stored.keySet()) {
+                    mutablePos.set(key);
+                    if (columns.stream().anyMatch(column -> column.contains(mutablePos))) {
+                        writer.remove(worldId, mutablePos);
+                        removed++;
+                    }
+                }
 
-        var dbItemStmt = connection.prepareStatement(
-                "INSERT INTO items (item, count, container) VALUES (?, ?, ?)"
-        );
-        for (var itemId : items.keySet()) {
-            dbItemStmt.clearParameters();
-            dbItemStmt.setString(1, itemId);
-            dbItemStmt.setInt(2, items.get(itemId));
-            dbItemStmt.setObject(3, containerId);
-            dbItemStmt.execute();
+                writer.commit();
+            }
+        } catch (SQLException e) {
+            logger.error("Failed to write tracked chunks: ", e);
+            written = 0;
+            removed = 0;
+        } finally {
+            progress.tileDone(columns.size(), captures.size(), written, removed);
         }
-
-        dbItemStmt.close();
     }
 
-    private static @NotNull HashMap<String, Integer> tryGetContainerItems(BlockEntity blockEntity) {
-        HashMap<String, Integer> items = new HashMap<>();
-
-        LootableContainerBlockEntity container;
-        if (blockEntity instanceof ChestBlockEntity chest) {
-            container = chest;
-        } else if (blockEntity instanceof ShulkerBoxBlockEntity shulkerBox) {
-            container = shulkerBox;
-        } else {
-            return items;
-        }
-
-        for (int i = 0; i < container.size(); i++) {
-            ItemStack stack = container.getStack(i);
-            if (!stack.isEmpty()) {
-                var itemId = stack.getItem().getTranslationKey();
-                items.put(itemId, items.getOrDefault(itemId, 0) + stack.getCount());
-
-                tryGetAsShulkerBoxItems(stack).forEach((k, v) -> {
-                    items.put(k, items.getOrDefault(k, 0) + v);
-                });
+    private ExecutorService laneOf(String worldId, int chunkX, int chunkZ) {
+        int hash = HashCommon.mix(worldId.hashCode() * 31 + Long.hashCode(ChunkTiles.tileKey(chunkX, chunkZ)));
+        return persistLanes[Math.floorMod(hash, persistLanes.length)];
+    }
 
-                tryGetAsBundleItems(stack).forEach((k, v) -> {
-                    items.put(k, items.getOrDefault(k, 0) + v);
-                });
+    /**
+     * Writes single container changes, off the server thread. Changes within the tile being captured are
+     * persisted with it, the others in one transaction per lane. Must be called on the server thread.
+     */
+    private void persist(World world, List<ContainerCapture> captures) {
+        var byLane = new HashMap<ExecutorService, List<ContainerCapture>>();
+        for (ContainerCapture capture : captures) {
+            if (!captureStage.mergeIntoCurrentTile(world, capture)) {
+                byLane.computeIfAbsent(laneOf(capture.world(), capture.pos().getX() >> 4, capture.pos().getZ() >> 4), lane -> new ArrayList<>())
+                        .add(capture);
             }
         }
-        return items;
-    }
 
-    private static @NotNull HashMap<String, Integer> tryGetAsShulkerBoxItems(ItemStack stack) {
-        HashMap<String, Integer> items = new HashMap<>();
-
-        if (stack.getItem() instanceof BlockItem blockItem) {
-            if (blockItem.getBlock() instanceof ShulkerBoxBlock) {
-                var containerComponent = stack.get(DataComponentTypes.CONTAINER);
-                if (containerComponent != null) {
-                    for(var innerStack : containerComponent.stream().toList()) {
-                        if (!innerStack.isEmpty()) {
-                            var innerItemId = innerStack.getItem().getTranslationKey();
-                            items.put(innerItemId, items.getOrDefault(innerItemId, 0) + innerStack.getCount());
-
-                            tryGetAsBundleItems(innerStack).forEach((k, v) -> {
-                                items.put(k, items.getOrDefault(k, 0) + v);
-                            });
-                        }
-                    }
+        byLane.forEach((lane, laneCaptures) -> lane.execute(() -> {
+            try (var writer = store.openWriter(batchSize, itemIndex, false)) {
+                for (ContainerCapture capture : laneCaptures) {
+                    capture.writeTo(writer);
                 }
+                writer.commit();
+                logger.debug("Persisted {} changed containers", laneCaptures.size());
+            } catch (SQLException e) {
+                logger.error("Failed to persist changed containers: ", e);
             }
+        }));
+    }
+
+    /**
+     * Rescans a cube around {@code location}. Must be called on the server thread, client worlds are ignored.
+     */
+    public void queueScan(Vec3d location, World world, int radius) {
+        // UseBlockCallback fires on the client too, whose world must not reach the capture on the server tick
+        if (store == null || world.isClient()) {
+            return;
         }
 
-        return items;
+        BlockPos center = BlockPos.ofFloored(location);
+        logger.debug("Performing instant scan at {} @ {}", center.toShortString(), world.getRegistryKey().getValue());
+        scanArea(world, new BlockBox(center).expand(radius), new AreaScanProgress(world.getRegistryKey().getValue().toString()));
     }
 
-    private static HashMap<String, Integer> tryGetAsBundleItems(ItemStack stack) {
-        HashMap<String, Integer> items = new HashMap<>();
-
-        if (stack.getItem().getTranslationKey().equals("item.minecraft.bundle")) {
-            var containerComponent = stack.get(DataComponentTypes.BUNDLE_CONTENTS);
-            if (containerComponent != null) {
-                for(var innerStack : containerComponent.stream().toList()) {
-                    if (!innerStack.isEmpty()) {
-                        var innerItemId = innerStack.getItem().getTranslationKey();
-                        items.put(innerItemId, items.getOrDefault(innerItemId, 0) + innerStack.getCount());
-                    }
-                }
-            }
+    /**
+     * Rescans the container at {@code pos} once things settled down, changes arriving before then are merged.
+     * Containers that keep changing wait longer, see {@link ChangeQueue}.
+     */
+    public void queueScan(World world, BlockPos pos) {
+        if (store == null) {
+            return;
         }
 
-        return items;
+        changeQueue.add(world.getRegistryKey(), pos, System.currentTimeMillis());
     }
 
-    public void queueScan(Vec3d location, World world, int radius) {
-        instantScanQueue.add((server) -> {
-            try {
-                Point p1 = new Point((int) (location.getX() - radius), (int) (location.getY() - radius), (int) (location.getZ() - radius));
-                Point p2 = new Point((int) (location.getX() + radius), (int) (location.getY() + radius), (int) (location.getZ() + radius));
-                AABB aabb = new AABB(p1, p2, world.getRegistryKey().getValue().toString());
-
-                logger.debug("Performing instant scan at {} @ {}", String.format("(%.1f, %.1f, %.1f)", location.getX(), location.getY(), location.getZ()), world.getRegistryKey().getValue().toString());
-                scanAABB(server, aabb);
+    /**
+     * Captures changed containers and a share of the running area rescans. Called every server tick,
+     * everything past the reads is done on other threads.
+     */
+    public void applyScanQueue(MinecraftServer server) {
+        if (store == null) {
+            return;
+        }
+        long deadline = System.nanoTime() + captureBudgetNanos;
+
+        // Capture changed containers within the budget, the rest of the due ones wait for the next tick
+        var captures = new HashMap<World, List<ContainerCapture>>();
+        long now = System.currentTimeMillis();
+        changeQueue.drain(now, maxChangesPerTick, deadline, (worldKey, pos) -> {
+            World world = server.getWorld(worldKey);
+            if (world == null) {
+                return;
+            }
 
-            } catch (SQLException e) {
-                logger.error("Failed to perform instant scan: ", e);
+            ContainerCapture capture = captureStage.captureOne(world, pos);
+            if (capture == null) {
+                // Unloaded meanwhile, captured once the chunk loads again instead of loading it on the tick
+                changeQueue.park(worldKey, pos);
+            } else {
+                captures.computeIfAbsent(world, w -> new ArrayList<>()).add(capture);
             }
         });
+        captures.forEach(this::persist);
+
+        // The rest of the budget goes to area rescans
+        captureStage.tick(deadline);
     }
 
-    public void queueScan(Location location) {
-        if(delayedLocationScanQueue.stream().anyMatch(p -> p.getLocation().equals(location))) {
+    /**
+     * Queues the changes that waited for {@code chunk} to load. Called on the server thread.
+     */
+    public void chunkLoaded(World world, ChunkPos chunk) {
+        if (store == null) {
             return;
         }
 
-        delayedLocationScanQueue.add(new DelayedLocationScan(location, System.currentTimeMillis()));
+        changeQueue.unpark(world.getRegistryKey(), chunk, System.currentTimeMillis());
     }
 
-    public void applyScanQueue(MinecraftServer server) {
-        // Apply delayed scans
-        var now = System.currentTimeMillis();
-        while(delayedLocationScanQueue.stream().anyMatch(p -> now - p.getSubmitTimeMillis() > LOCATION_SCAN_DELAY_MS)) {
-            var task = delayedLocationScanQueue.poll();
-            if (task != null) {
-                instantScanQueue.add((s) -> {
-                    try {
-                        World world = null;
-                        for (var w : server.getWorlds()) {
-                            if (w.getRegistryKey().getValue().equals(Identifier.tryParse(task.getLocation().getWorld()))) {
-                                world = w;
-                                break;
-                            }
-                        }
-
-                        scanOne(world, task.getLocation().toBlockPos(), true);
-                        logger.debug("Performed delayed scan at {} @ {}", task.getLocation().toString(), task.getLocation().getWorld());
-                    } catch (SQLException e) {
-                        logger.error("Failed to perform delayed scan: ", e);
-                    }
-                });
-            }
-        }
+    public ChangeQueue.Stats getChangeStats() {
+        return changeQueue.getStats();
+    }
 
-        // Apply scans
-        while (!instantScanQueue.isEmpty()) {
-            var task = instantScanQueue.poll();
-            if (task != null) {
-                instantScanScheduler.execute(() -> task.accept(server));
-            }
-        }
+    public ConnectionPool.Stats getPoolStats() {
+        return store == null ? null : store.getPoolStats();
     }
 
     public void removeBlockFromTracking(BlockPos pos, World world) {
-        if (connection == null) {
+        if (store == null) {
             return;
         }
 
-        try {
-            var stmt = connection.prepareStatement(
-                    "DELETE FROM containers WHERE world = ? AND x = ? AND y = ? AND z = ?"
-            );
-            stmt.setString(1, world.getRegistryKey().getValue().toString());
-            stmt.setInt(2, pos.getX());
-            stmt.setInt(3, pos.getY());
-            stmt.setInt(4, pos.getZ());
-            stmt.execute();
-            stmt.close();
-        } catch (SQLException e) {
-            logger.error("Failed to remove block from tracking: ", e);
-        }
+        persist(world, List.of(ContainerCapture.removal(world.getRegistryKey().getValue().toString(), pos.toImmutable())));
     }
 }
@@ -0,0 +1,49 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of one tracking area during a rescan, updated by the workers scanning its tiles.
+ */
+public class AreaScanProgress {
+    private final String world;
+    private final AtomicInteger totalColumns = new AtomicInteger();
+    private final AtomicInteger scannedColumns = new AtomicInteger();
+    private final AtomicInteger containers = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+    private final AtomicInteger removed = new AtomicInteger();
+
+    public AreaScanProgress(String world) {
+        this.world = world;
+    }
+
+    public void start(int columns) {
+        totalColumns.set(columns);
+    }
+
+    /**
+     * @param tileWritten containers that were new or changed, the others were left untouched
+     */
+    public void tileDone(int columns, int tileContainers, int tileWritten, int tileRemoved) {
+        scannedColumns.addAndGet(columns);
+        containers.addAndGet(tileContainers);
+        written.addAndGet(tileWritten);
+        removed.addAndGet(tileRemoved);
+    }
+
+    public boolean isDone() {
+        int total = totalColumns.get();
+        return total > 0 && scannedColumns.get() >= total;
+    }
+
+    public Text toText(int number) {
+        int total = totalColumns.get();
+        int scanned = scannedColumns.get();
+        int percent = total == 0 ? 0 : (int) (scanned * 100L / total);
+        return Text.translatable("info.cif.stat.area", number, world, scanned, total, percent, containers.get(), written.get(), removed.get())
+                .formatted(isDone() ? Formatting.GREEN : Formatting.YELLOW);
+    }
+}
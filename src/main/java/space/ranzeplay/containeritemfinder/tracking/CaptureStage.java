@@ -0,0 +1,171 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import net.minecraft.block.entity.BlockEntity;
+import net.minecraft.util.math.BlockBox;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.world.World;
+import net.minecraft.world.chunk.WorldChunk;
+import space.ranzeplay.containeritemfinder.container.ContainerAdapter;
+import space.ranzeplay.containeritemfinder.container.ContainerAdapterRegistry;
+import space.ranzeplay.containeritemfinder.item.ItemTally;
+import space.ranzeplay.containeritemfinder.scan.ScanKernel;
+import space.ranzeplay.containeritemfinder.scan.ScanRegion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * The server thread half of tracking: reads containers from the world into {@link ContainerCapture}s,
+ * which are then persisted by worker threads. All world access of tracking happens here.
+ * <p>
+ * Tiles of area rescans are queued from any thread and captured a piece per tick within the time
+ * budget given to {@link #tick(long)}. Tiles that were captured but not yet persisted are limited,
+ * so capturing never runs far ahead of the database.
+ * <p>
+ * Containers captured on their own while a tile is being captured are folded into that tile, see
+ * {@link #mergeIntoCurrentTile}, so the tile never persists contents older than theirs after them.
+ */
+public class CaptureStage {
+    private record TileJob(World world, List<BlockBox> columns, Consumer<List<ContainerCapture>> captured) {
+    }
+
+    private final int nestedSearchDepth;
+    private final int maxTilesInFlight;
+    private final ConcurrentLinkedQueue<TileJob> tiles = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger tilesInFlight = new AtomicInteger();
+
+    // The tile being captured, only touched on the server thread
+    private TileJob current;
+    private int currentColumn;
+    private ScanKernel currentKernel;
+    // Captures of the tile by packed position, in the order they were taken
+    private Long2ObjectLinkedOpenHashMap<ContainerCapture> currentCaptures;
+
+    public CaptureStage(int nestedSearchDepth, int maxTilesInFlight) {
+        this.nestedSearchDepth = nestedSearchDepth;
+        this.maxTilesInFlight = Math.max(1, maxTilesInFlight);
+    }
+
+    /**
+     * Queues the chunk columns of a tile for capture. Chunks that are not loaded are loaded.
+     *
+     * @param captured receives the captures of every container holding items, on the server thread.
+     *                 {@link #tileDone()} must be called once they are persisted
+     */
+    public void submitTile(World world, List<BlockBox> columns, Consumer<List<ContainerCapture>> captured) {
+        tiles.add(new TileJob(world, columns, captured));
+    }
+
+    public void tileDone() {
+        tilesInFlight.decrementAndGet();
+    }
+
+    public int getQueuedTiles() {
+        return tiles.size() + (current == null ? 0 : 1);
+    }
+
+    /**
+     * Captures the container at {@code pos} right away if its chunk is loaded, it is never loaded for this.
+     * Must be called on the server thread.
+     *
+     * @return a removal if there is no container holding items at {@code pos}, null if its chunk is not loaded
+     */
+    public ContainerCapture captureOne(World world, BlockPos pos) {
+        WorldChunk chunk = world.getChunkManager().getWorldChunk(pos.getX() >> 4, pos.getZ() >> 4);
+        if (chunk == null) {
+            return null;
+        }
+
+        String worldId = world.getRegistryKey().getValue().toString();
+        BlockEntity blockEntity = chunk.getBlockEntity(pos);
+        ContainerAdapter adapter = ContainerAdapterRegistry.get(blockEntity);
+        if (adapter == null) {
+            return ContainerCapture.removal(worldId, pos.toImmutable());
+        }
+        return capture(world, worldId, blockEntity, adapter, pos.toImmutable());
+    }
+
+    private ContainerCapture capture(World world, String worldId, BlockEntity blockEntity, ContainerAdapter adapter, BlockPos pos) {
+        ItemTally items = new ItemTally();
+        adapter.walk(blockEntity, nestedSearchDepth, items::add);
+        if (items.isEmpty()) {
+            return ContainerCapture.removal(worldId, pos);
+        }
+        return new ContainerCapture(worldId, pos, world.getBlockState(pos).getBlock().getTranslationKey(), items);
+    }
+
+    /**
+     * Folds a container captured on its own into the tile being captured, if it lies within it. Whichever of
+     * the two reads of the container comes later wins, and it is persisted together with the tile.
+     * Must be called on the server thread.
+     *
+     * @return false if the container is outside the tile being captured, it must be persisted by the caller
+     */
+    public boolean mergeIntoCurrentTile(World world, ContainerCapture capture) {
+        if (current == null || current.world() != world
+                || current.columns().stream().noneMatch(column -> column.contains(capture.pos()))) {
+            return false;
+        }
+
+        // The tile stores nothing for positions it has no capture of, which removes them
+        if (capture.isRemoval()) {
+            currentCaptures.remove(capture.pos().asLong());
+        } else {
+            currentCaptures.put(capture.pos().asLong(), capture);
+        }
+        return true;
+    }
+
+    /**
+     * Captures queued tiles until the deadline (a {@link System#nanoTime()} value) passes.
+     * Must be called on the server thread.
+     */
+    public void tick(long deadlineNanos) {
+        while (System.nanoTime() < deadlineNanos) {
+            if (currentKernel == null && !startNextColumn()) {
+                return;
+            }
+
+            if (currentKernel.step(deadlineNanos)) {
+                currentKernel = null;
+                currentColumn++;
+            }
+        }
+    }
+
+    // Prepares the kernel for the next column to capture, returns false if there is nothing to do
+    private boolean startNextColumn() {
+        if (current != null && currentColumn >= current.columns().size()) {
+            current.captured().accept(new ArrayList<>(currentCaptures.values()));
+            current = null;
+        }
+
+        if (current == null) {
+            if (tilesInFlight.get() >= maxTilesInFlight || (current = tiles.poll()) == null) {
+                return false;
+            }
+            tilesInFlight.incrementAndGet();
+            currentColumn = 0;
+            currentCaptures = new Long2ObjectLinkedOpenHashMap<>();
+        }
+
+        World world = current.world();
+        String worldId = world.getRegistryKey().getValue().toString();
+        Long2ObjectLinkedOpenHashMap<ContainerCapture> captures = currentCaptures;
+        currentKernel = new ScanKernel(world, ScanRegion.box(current.columns().get(currentColumn)), true, (blockEntity, adapter, pos, distanceSq) -> {
+            ContainerCapture capture = capture(world, worldId, blockEntity, adapter, pos);
+            // Empty containers are not stored, leaving them out makes the diff remove their old entry
+            if (capture.isRemoval()) {
+                captures.remove(pos.asLong());
+            } else {
+                captures.put(pos.asLong(), capture);
+            }
+            return true;
+        });
+        return true;
+    }
+}
@@ -0,0 +1,183 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.registry.RegistryKey;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import net.minecraft.world.World;
+
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.function.BiConsumer;
+
+/**
+ * Debounces container changes: a position is rescanned once its deadline passes, and changes to a
+ * position that is already pending are dropped, the rescan reads the latest contents anyway.
+ * <p>
+ * Pending positions are kept in a map for constant time deduplication, and in a queue ordered by
+ * deadline so draining only ever looks at the changes that are due.
+ * <p>
+ * Containers that keep changing, like the chests of a sorter, are backed off: each change that
+ * arrives within the window after a rescan doubles the window, up to the maximum delay, and every
+ * further window a container stays quiet halves it again. A hot container is still rescanned once
+ * per window, so the stored contents catch up eventually.
+ * <p>
+ * Changes that come due while their chunk is unloaded are parked per chunk instead, and queued again
+ * once the chunk loads.
+ */
+public class ChangeQueue {
+    // Hotness entries quiet for this many maximum delays are forgotten
+    private static final int FORGET_AFTER_MAX_DELAYS = 2;
+    private static final long SWEEP_INTERVAL_MILLIS = 60_000;
+
+    public record Stats(int pending, int hot, int cold) {
+    }
+
+    private record Key(RegistryKey<World> world, long pos) {
+    }
+
+    private record ChunkKey(RegistryKey<World> world, long chunk) {
+    }
+
+    private record Pending(Key key, long deadlineMillis) {
+    }
+
+    // level is the number of times the base delay was doubled
+    private record Hotness(int level, long lastScanMillis) {
+    }
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int maxLevel;
+
+    private final ConcurrentHashMap<Key, Long> deadlines = new ConcurrentHashMap<>();
+    private final PriorityBlockingQueue<Pending> queue = new PriorityBlockingQueue<>(64, Comparator.comparingLong(Pending::deadlineMillis));
+    private final ConcurrentHashMap<Key, Hotness> hotness = new ConcurrentHashMap<>();
+    // Packed positions of the parked changes, sets are only touched within compute and remove
+    private final ConcurrentHashMap<ChunkKey, LongOpenHashSet> parked = new ConcurrentHashMap<>();
+    private volatile long lastSweepMillis = 0;
+
+    public ChangeQueue(long baseDelayMillis, long maxDelayMillis) {
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.maxLevel = 63 - Long.numberOfLeadingZeros(this.maxDelayMillis / this.baseDelayMillis);
+    }
+
+    /**
+     * Schedules a rescan of {@code pos} after the container's current debounce window.
+     *
+     * @return false if the position was already pending
+     */
+    public boolean add(RegistryKey<World> world, BlockPos pos, long nowMillis) {
+        Key key = new Key(world, pos.asLong());
+        if (deadlines.containsKey(key)) {
+            return false;
+        }
+
+        Hotness heat = hotness.computeIfPresent(key, (k, h) -> new Hotness(nextLevel(h, nowMillis), h.lastScanMillis()));
+        long deadlineMillis = nowMillis + delay(heat == null ? 0 : heat.level());
+        if (deadlines.putIfAbsent(key, deadlineMillis) != null) {
+            return false;
+        }
+
+        queue.add(new Pending(key, deadlineMillis));
+        return true;
+    }
+
+    /**
+     * Keeps a change whose chunk is not loaded until {@link #unpark} is called for that chunk.
+     */
+    public void park(RegistryKey<World> world, BlockPos pos) {
+        parked.compute(new ChunkKey(world, ChunkPos.toLong(pos.getX() >> 4, pos.getZ() >> 4)), (key, positions) -> {
+            if (positions == null) {
+                positions = new LongOpenHashSet();
+            }
+            positions.add(pos.asLong());
+            return positions;
+        });
+    }
+
+    /**
+     * Schedules the changes parked for a chunk that has just been loaded.
+     */
+    public void unpark(RegistryKey<World> world, ChunkPos chunk, long nowMillis) {
+        LongOpenHashSet positions = parked.remove(new ChunkKey(world, chunk.toLong()));
+        if (positions == null) {
+            return;
+        }
+
+        for (long pos : positions) {
+            add(world, BlockPos.fromLong(pos), nowMillis);
+        }
+    }
+
+    private int nextLevel(Hotness heat, long nowMillis) {
+        long quietMillis = nowMillis - heat.lastScanMillis();
+        // Changed again within its window: one level up. Quiet for a window: unchanged, one level down per further window
+        long quietWindows = Math.min(quietMillis / delay(heat.level()), maxLevel + 1);
+        return (int) Math.max(0, Math.min(maxLevel, heat.level() + 1 - quietWindows));
+    }
+
+    private long delay(int level) {
+        return Math.min(maxDelayMillis, baseDelayMillis << level);
+    }
+
+    /**
+     * Hands at most {@code limit} changes whose deadline has passed to {@code consumer}, earliest first,
+     * until the time budget ends at {@code budgetDeadlineNanos} (a {@link System#nanoTime()} value).
+     *
+     * @return the number of changes drained
+     */
+    public int drain(long nowMillis, int limit, long budgetDeadlineNanos, BiConsumer<RegistryKey<World>, BlockPos> consumer) {
+        int drained = 0;
+        while (drained < limit && System.nanoTime() < budgetDeadlineNanos) {
+            Pending head = queue.peek();
+            if (head == null || head.deadlineMillis() > nowMillis) {
+                break;
+            }
+
+            Pending due = queue.poll();
+            if (due == null) {
+                break;
+            }
+            // Another thread drained the head in the meantime and this one is not due yet
+            if (due.deadlineMillis() > nowMillis) {
+                queue.add(due);
+                break;
+            }
+
+            hotness.merge(due.key(), new Hotness(0, nowMillis), (old, scanned) -> new Hotness(old.level(), nowMillis));
+            deadlines.remove(due.key(), due.deadlineMillis());
+            consumer.accept(due.key().world(), BlockPos.fromLong(due.key().pos()));
+            drained++;
+        }
+
+        if (nowMillis - lastSweepMillis >= SWEEP_INTERVAL_MILLIS) {
+            lastSweepMillis = nowMillis;
+            long forgetBefore = nowMillis - maxDelayMillis * FORGET_AFTER_MAX_DELAYS;
+            hotness.entrySet().removeIf(entry -> entry.getValue().lastScanMillis() < forgetBefore && !deadlines.containsKey(entry.getKey()));
+        }
+        return drained;
+    }
+
+    public int size() {
+        return deadlines.size();
+    }
+
+    /**
+     * Counts containers changed recently, hot ones currently have a longer window than the base delay.
+     */
+    public Stats getStats() {
+        int hot = 0;
+        int cold = 0;
+        for (Hotness heat : hotness.values()) {
+            if (heat.level() > 0) {
+                hot++;
+            } else {
+                cold++;
+            }
+        }
+        return new Stats(deadlines.size(), hot, cold);
+    }
+}
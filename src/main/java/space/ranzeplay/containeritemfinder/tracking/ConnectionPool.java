@@ -0,0 +1,231 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import org.slf4j.Logger;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A small bounded JDBC connection pool, so that every tracking worker gets a connection of its own.
+ * <p>
+ * Connections idle for a while are validated before being handed out, connections older than the
+ * maximum lifetime are replaced, and leases held longer than the leak threshold are logged
+ * together with the stack that borrowed them.
+ */
+public class ConnectionPool implements AutoCloseable {
+    // Connections used more recently than this are handed out without validation
+    private static final long VALIDATION_IDLE_MILLIS = 5_000;
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    public record Stats(int active, int idle, int waiting, long borrows, long timeouts, double averageWaitMillis, double maxWaitMillis, int leaks) {
+    }
+
+    private static class PooledConnection {
+        private final Connection connection;
+        private final long createdAt = System.currentTimeMillis();
+        private long lastUsedAt = createdAt;
+
+        private PooledConnection(Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * A borrowed connection, given back to the pool when closed.
+     */
+    public class Lease implements AutoCloseable {
+        private final PooledConnection pooled;
+        private final long borrowedAt = System.currentTimeMillis();
+        private final Throwable borrowStack = new Throwable("Connection borrowed here");
+        private final AtomicBoolean returned = new AtomicBoolean(false);
+        private boolean leakReported = false;
+
+        private Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        public Connection connection() {
+            return pooled.connection;
+        }
+
+        @Override
+        public void close() {
+            if (returned.compareAndSet(false, true)) {
+                giveBack(this);
+            }
+        }
+    }
+
+    private final String connectionString;
+    private final long maxLifetimeMillis;
+    private final long borrowTimeoutMillis;
+    private final long leakThresholdMillis;
+    private final Logger logger;
+
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService leakDetector;
+
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    public ConnectionPool(String connectionString, int maxSize, long maxLifetimeMillis, long borrowTimeoutMillis, long leakThresholdMillis, Logger logger) {
+        this.connectionString = connectionString;
+        this.maxLifetimeMillis = maxLifetimeMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.leakThresholdMillis = leakThresholdMillis;
+        this.logger = logger;
+        this.permits = new Semaphore(Math.max(1, maxSize), true);
+
+        this.leakDetector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cif-connection-leak-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long checkInterval = Math.max(1_000, leakThresholdMillis / 2);
+        leakDetector.scheduleAtFixedRate(this::detectLeaks, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection, waiting for one to be given back if the pool is exhausted.
+     *
+     * @throws SQLException if no connection became available in time, or a new one could not be opened
+     */
+    public Lease borrow() throws SQLException {
+        long waitStart = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        long waited = System.nanoTime() - waitStart;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        if (!acquired) {
+            timeouts.incrementAndGet();
+            throw new SQLException("Timed out after " + borrowTimeoutMillis + "ms waiting for a database connection");
+        }
+        borrows.incrementAndGet();
+
+        try {
+            Lease lease = new Lease(takeIdleOrOpen());
+            leases.add(lease);
+            return lease;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection takeIdleOrOpen() throws SQLException {
+        PooledConnection pooled;
+        // Most recently used first, it is the least likely to have gone stale
+        while ((pooled = idle.pollFirst()) != null) {
+            if (isUsable(pooled)) {
+                return pooled;
+            }
+            closeQuietly(pooled);
+        }
+
+        return new PooledConnection(DriverManager.getConnection(connectionString));
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        long now = System.currentTimeMillis();
+        if (now - pooled.createdAt >= maxLifetimeMillis) {
+            return false;
+        }
+
+        try {
+            if (now - pooled.lastUsedAt < VALIDATION_IDLE_MILLIS) {
+                return !pooled.connection.isClosed();
+            }
+            return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void giveBack(Lease lease) {
+        leases.remove(lease);
+        PooledConnection pooled = lease.pooled;
+        try {
+            // Never hand out a connection in the middle of someone else's transaction
+            if (!pooled.connection.isClosed() && !pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+
+            pooled.lastUsedAt = System.currentTimeMillis();
+            if (!pooled.connection.isClosed() && pooled.lastUsedAt - pooled.createdAt < maxLifetimeMillis) {
+                idle.addFirst(pooled);
+            } else {
+                closeQuietly(pooled);
+            }
+        } catch (SQLException e) {
+            closeQuietly(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.currentTimeMillis();
+        for (Lease lease : leases) {
+            if (!lease.leakReported && now - lease.borrowedAt >= leakThresholdMillis) {
+                lease.leakReported = true;
+                leaks.incrementAndGet();
+                logger.warn("Database connection held for {}ms, it may have leaked", now - lease.borrowedAt, lease.borrowStack);
+            }
+        }
+    }
+
+    public Stats getStats() {
+        long borrowCount = borrows.get();
+        long waitCount = borrowCount + timeouts.get();
+        return new Stats(
+                leases.size(),
+                idle.size(),
+                permits.getQueueLength(),
+                borrowCount,
+                timeouts.get(),
+                waitCount == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / waitCount,
+                maxWaitNanos.get() / 1_000_000.0,
+                (int) leaks.get()
+        );
+    }
+
+    @Override
+    public void close() {
+        leakDetector.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled);
+        }
+    }
+
+    private void closeQuietly(PooledConnection pooled) {
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            logger.debug("Failed to close pooled connection: ", e);
+        }
+    }
+}
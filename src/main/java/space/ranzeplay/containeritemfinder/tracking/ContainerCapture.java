@@ -0,0 +1,36 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import net.minecraft.util.math.BlockPos;
+import space.ranzeplay.containeritemfinder.item.ItemTally;
+
+import java.sql.SQLException;
+
+/**
+ * The contents of one container, copied on the server thread so they can be persisted from any thread.
+ *
+ * @param block translation key of the block, null for a removal
+ * @param items item counts, not modified once captured. Null for a removal
+ */
+public record ContainerCapture(String world, BlockPos pos, String block, ItemTally items) {
+    /**
+     * Nothing worth storing at {@code pos}: the container is gone or empty.
+     */
+    public static ContainerCapture removal(String world, BlockPos pos) {
+        return new ContainerCapture(world, pos, null, null);
+    }
+
+    public boolean isRemoval() {
+        return items == null;
+    }
+
+    /**
+     * Stores or removes the container through {@code writer}.
+     */
+    public void writeTo(TrackingWriter writer) throws SQLException {
+        if (isRemoval()) {
+            writer.remove(world, pos);
+        } else {
+            writer.put(world, pos, block, items, items.contentHash(block));
+        }
+    }
+}
@@ -0,0 +1,651 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.math.BlockBox;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import org.slf4j.Logger;
+import space.ranzeplay.containeritemfinder.item.ItemTally;
+import space.ranzeplay.containeritemfinder.models.TrackingSearchResult;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Stores tracked containers in a local file, for servers without a database server.
+ * <p>
+ * All containers are kept in memory, bucketed by chunk. Changes are appended to a memory-mapped log,
+ * one record per container and a commit record per transaction, and forced to disk on commit. On
+ * startup the log is replayed, dropping a transaction that was cut off. Once the log holds more than
+ * twice the bytes needed for the live containers it is compacted: they are written to a log of the
+ * next generation, which replaces the current one.
+ * <p>
+ * Every record is prefixed with its length and a checksum, so a torn write ends the replay.
+ */
+public class EmbeddedTrackingStore implements TrackingStore {
+    private static final int MAGIC = 0x43494654; // CIFT
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    // Length and checksum in front of every record
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte COMMIT = 3;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    // Logs smaller than this are never compacted
+    private static final int COMPACT_MIN_BYTES = 16 << 20;
+    private static final String LOG_PREFIX = "tracking-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final String TEMP_SUFFIX = ".tmp";
+    // Written over cleared ranges of the log in bulk, never modified
+    private static final byte[] ZEROES = new byte[64 << 10];
+
+    /**
+     * @param recordBytes size of the log record storing this container, for deciding when to compact
+     */
+    private record StoredContainer(String block, long contentHash, String[] items, int[] counts, int recordBytes) {
+        private int count(String item) {
+            for (int i = 0; i < items.length; i++) {
+                if (items[i].equals(item)) {
+                    return counts[i];
+                }
+            }
+            return 0;
+        }
+
+        private StoredContainer withRecordBytes(int bytes) {
+            return new StoredContainer(block, contentHash, items, counts, bytes);
+        }
+    }
+
+    // A change of one container, null container for a removal
+    private record Change(String world, long pos, StoredContainer container) {
+    }
+
+    @FunctionalInterface
+    private interface ContainerVisitor {
+        void visit(long pos, StoredContainer container);
+    }
+
+    private final Path directory;
+    private final Logger logger;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // World to chunk to packed position to container
+    private final Map<String, Long2ObjectOpenHashMap<Long2ObjectOpenHashMap<StoredContainer>>> worlds = new HashMap<>();
+    private long liveBytes = 0;
+
+    // The log and everything below are only touched with the write lock held
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer log;
+    private int writePosition;
+    private ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private final CRC32C checksum = new CRC32C();
+
+    /**
+     * Opens the store in {@code directory}, creating it if needed, and replays its log.
+     */
+    public EmbeddedTrackingStore(Path directory, Logger logger) throws IOException {
+        this.directory = directory;
+        this.logger = logger;
+        Files.createDirectories(directory);
+
+        // Left over logs are from before a compaction that could not delete them, or from one cut off
+        List<Path> stale = new ArrayList<>();
+        generation = -1;
+        try (var files = Files.newDirectoryStream(directory, LOG_PREFIX + "*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!name.endsWith(LOG_SUFFIX)) {
+                    stale.add(file);
+                    continue;
+                }
+                try {
+                    long fileGeneration = Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+                    if (fileGeneration > generation) {
+                        if (generation >= 0) {
+                            stale.add(logFile(generation));
+                        }
+                        generation = fileGeneration;
+                    } else {
+                        stale.add(file);
+                    }
+                } catch (NumberFormatException e) {
+                    logger.warn("Ignoring unknown file {} in the tracking store", file);
+                }
+            }
+        }
+        generation = Math.max(0, generation);
+        for (Path file : stale) {
+            Files.deleteIfExists(file);
+        }
+
+        Path file = logFile(generation);
+        long size = Files.exists(file) ? Files.size(file) : 0;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Tracking store log " + file + " is too large");
+        }
+        mapLog(file, Math.max(INITIAL_CAPACITY, (int) size));
+
+        if (size < HEADER_BYTES) {
+            log.putInt(0, MAGIC);
+            log.putInt(4, VERSION);
+            log.force();
+            writePosition = HEADER_BYTES;
+        } else {
+            if (log.getInt(0) != MAGIC || log.getInt(4) != VERSION) {
+                throw new IOException(file + " is not a tracking store log");
+            }
+            writePosition = replay();
+            // A transaction cut off at the end is cleared, so it is never mistaken for records of later ones
+            clear(writePosition, (int) size);
+        }
+
+        logger.info("Opened tracking store {} with {} bytes of log", file, writePosition);
+        compactIfNeeded();
+    }
+
+    private Path logFile(long generation) {
+        return directory.resolve(LOG_PREFIX + generation + LOG_SUFFIX);
+    }
+
+    private void mapLog(Path file, int capacity) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    // Applies the complete transactions of the log, returns where the last one ends
+    private int replay() {
+        int position = HEADER_BYTES;
+        int committed = position;
+        List<Change> transaction = new ArrayList<>();
+        while (position <= log.capacity() - RECORD_HEADER_BYTES) {
+            int length = log.getInt(position);
+            if (length <= 0 || length > log.capacity() - position - RECORD_HEADER_BYTES) {
+                break;
+            }
+            ByteBuffer payload = log.slice(position + RECORD_HEADER_BYTES, length);
+            if (log.getInt(position + 4) != checksum(payload)) {
+                break;
+            }
+            position += RECORD_HEADER_BYTES + length;
+
+            byte type = payload.get();
+            if (type == COMMIT) {
+                transaction.forEach(this::applyChange);
+                transaction.clear();
+                committed = position;
+            } else if (type == PUT || type == REMOVE) {
+                transaction.add(decode(type, payload, RECORD_HEADER_BYTES + length));
+            } else {
+                break;
+            }
+        }
+        return committed;
+    }
+
+    private int checksum(ByteBuffer payload) {
+        checksum.reset();
+        checksum.update(payload.duplicate());
+        return (int) checksum.getValue();
+    }
+
+    private static Change decode(byte type, ByteBuffer payload, int recordBytes) {
+        String world = getString(payload);
+        long pos = payload.getLong();
+        if (type == REMOVE) {
+            return new Change(world, pos, null);
+        }
+
+        String block = getString(payload);
+        long contentHash = payload.getLong();
+        int itemCount = payload.getInt();
+        String[] items = new String[itemCount];
+        int[] counts = new int[itemCount];
+        for (int i = 0; i < itemCount; i++) {
+            items[i] = getString(payload);
+            counts[i] = payload.getInt();
+        }
+        return new Change(world, pos, new StoredContainer(block, contentHash, items, counts, recordBytes));
+    }
+
+    // Writes the payload of a record for the change to the scratch buffer, ready to be read
+    private ByteBuffer encode(Change change) {
+        while (true) {
+            scratch.clear();
+            try {
+                StoredContainer container = change.container();
+                scratch.put(container == null ? REMOVE : PUT);
+                putString(scratch, change.world());
+                scratch.putLong(change.pos());
+                if (container != null) {
+                    putString(scratch, container.block());
+                    scratch.putLong(container.contentHash());
+                    scratch.putInt(container.items().length);
+                    for (int i = 0; i < container.items().length; i++) {
+                        putString(scratch, container.items()[i]);
+                        scratch.putInt(container.counts()[i]);
+                    }
+                }
+                return scratch.flip();
+            } catch (BufferOverflowException e) {
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+            }
+        }
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long chunkKey(long pos) {
+        return ChunkPos.toLong(BlockPos.unpackLongX(pos) >> 4, BlockPos.unpackLongZ(pos) >> 4);
+    }
+
+    private void applyChange(Change change) {
+        var chunks = worlds.computeIfAbsent(change.world(), world -> new Long2ObjectOpenHashMap<>());
+        long chunk = chunkKey(change.pos());
+        var containers = chunks.get(chunk);
+        StoredContainer previous = containers == null ? null : containers.remove(change.pos());
+        if (previous != null) {
+            liveBytes -= previous.recordBytes();
+        }
+
+        if (change.container() == null) {
+            if (containers != null && containers.isEmpty()) {
+                chunks.remove(chunk);
+            }
+            return;
+        }
+
+        if (containers == null) {
+            containers = new Long2ObjectOpenHashMap<>();
+            chunks.put(chunk, containers);
+        }
+        containers.put(change.pos(), change.container());
+        liveBytes += change.container().recordBytes();
+    }
+
+    /**
+     * Appends the changes as one transaction, forces them to disk and applies them.
+     */
+    private void append(List<Change> changes) throws SQLException {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            int start = writePosition;
+            int position = start;
+            List<Change> sized = new ArrayList<>(changes.size());
+            try {
+                for (Change change : changes) {
+                    ByteBuffer payload = encode(change);
+                    int recordBytes = RECORD_HEADER_BYTES + payload.remaining();
+                    position = appendRecord(position, payload);
+                    sized.add(change.container() == null ? change : new Change(change.world(), change.pos(), change.container().withRecordBytes(recordBytes)));
+                }
+                position = appendRecord(position, ByteBuffer.wrap(new byte[]{COMMIT}));
+                log.force(start, position - start);
+            } catch (IOException | RuntimeException e) {
+                // Cleared, so the next transaction does not find the records of this one behind its own
+                clear(start, position);
+                throw new SQLException("Failed to write to the tracking store", e);
+            }
+
+            writePosition = position;
+            sized.forEach(this::applyChange);
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Writes one record at position, returns where it ends
+    private int appendRecord(int position, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        ensureCapacity((long) position + RECORD_HEADER_BYTES + length);
+        log.putInt(position, length);
+        log.putInt(position + 4, checksum(payload));
+        log.put(position + RECORD_HEADER_BYTES, payload, payload.position(), length);
+        return position + RECORD_HEADER_BYTES + length;
+    }
+
+    private void ensureCapacity(long needed) throws IOException {
+        if (needed <= log.capacity()) {
+            return;
+        }
+        long capacity = Math.min(Integer.MAX_VALUE, Math.max(needed, (long) log.capacity() * 2));
+        if (capacity < needed) {
+            throw new IOException("Tracking store log is full");
+        }
+
+        // Records already written through the old mapping are flushed along with the new ones
+        log.force();
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private void clear(int from, int to) {
+        int end = Math.min(to, log.capacity());
+        for (int i = from; i < end; i += ZEROES.length) {
+            log.put(i, ZEROES, 0, Math.min(ZEROES.length, end - i));
+        }
+    }
+
+    private void compactIfNeeded() {
+        if (writePosition >= COMPACT_MIN_BYTES && writePosition - HEADER_BYTES > 2 * liveBytes) {
+            compact();
+        }
+    }
+
+    /**
+     * Writes the live containers to a log of the next generation and switches over to it. The new log
+     * only replaces the current one once it is complete, a failed compaction keeps the current log.
+     */
+    private void compact() {
+        long next = generation + 1;
+        Path file = logFile(next);
+        Path temp = directory.resolve(file.getFileName() + TEMP_SUFFIX);
+        long size;
+        try {
+            try (var out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                var buffer = ByteBuffer.allocate(1 << 16);
+                buffer.putInt(MAGIC).putInt(VERSION);
+                for (var world : worlds.entrySet()) {
+                    for (var containers : world.getValue().values()) {
+                        for (var container : containers.long2ObjectEntrySet()) {
+                            buffer = writeRecord(out, buffer, encode(new Change(world.getKey(), container.getLongKey(), container.getValue())));
+                        }
+                    }
+                }
+                buffer = writeRecord(out, buffer, ByteBuffer.wrap(new byte[]{COMMIT}));
+                drain(out, buffer);
+                out.force(true);
+                size = out.size();
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Failed to compact the tracking store, keeping the current log: ", e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+
+        Path previous = logFile(generation);
+        try {
+            log.force();
+            channel.close();
+            mapLog(file, (int) Math.min(Integer.MAX_VALUE, Math.max(INITIAL_CAPACITY, size * 2)));
+        } catch (IOException e) {
+            // The compacted log is complete, it is used from the next start on
+            throw new IllegalStateException("Failed to open the compacted tracking store log", e);
+        }
+        logger.info("Compacted the tracking store from {} to {} bytes", writePosition, size);
+        generation = next;
+        writePosition = (int) size;
+
+        try {
+            Files.deleteIfExists(previous);
+        } catch (IOException e) {
+            // Some platforms refuse while the old mapping is still around, it is deleted on the next start
+            logger.debug("Could not delete the previous tracking store log yet: ", e);
+        }
+    }
+
+    // Appends one record to the buffer, writing the buffer out first if it is full
+    private ByteBuffer writeRecord(FileChannel out, ByteBuffer buffer, ByteBuffer payload) throws IOException {
+        int length = payload.remaining();
+        if (buffer.remaining() < RECORD_HEADER_BYTES + length) {
+            drain(out, buffer);
+            if (buffer.capacity() < RECORD_HEADER_BYTES + length) {
+                buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + length);
+            }
+        }
+        buffer.putInt(length);
+        buffer.putInt(checksum(payload));
+        buffer.put(payload);
+        return buffer;
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // Calls the visitor for the containers of a world within the box, or all of them for a null box
+    private void forEachWithin(String world, BlockBox box, ContainerVisitor visitor) {
+        var chunks = worlds.get(world);
+        if (chunks == null) {
+            return;
+        }
+
+        if (box == null) {
+            for (var containers : chunks.values()) {
+                containers.long2ObjectEntrySet().forEach(entry -> visitor.visit(entry.getLongKey(), entry.getValue()));
+            }
+            return;
+        }
+
+        int minChunkX = box.getMinX() >> 4;
+        int maxChunkX = box.getMaxX() >> 4;
+        int minChunkZ = box.getMinZ() >> 4;
+        int maxChunkZ = box.getMaxZ() >> 4;
+        var pos = new BlockPos.Mutable();
+        // Look up the chunks of the box, unless there are fewer stored chunks than that
+        if ((long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1) <= chunks.size()) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                    var containers = chunks.get(ChunkPos.toLong(chunkX, chunkZ));
+                    if (containers != null) {
+                        visitWithin(containers, box, pos, visitor);
+                    }
+                }
+            }
+        } else {
+            for (var containers : chunks.values()) {
+                visitWithin(containers, box, pos, visitor);
+            }
+        }
+    }
+
+    private static void visitWithin(Long2ObjectOpenHashMap<StoredContainer> containers, BlockBox box, BlockPos.Mutable pos, ContainerVisitor visitor) {
+        for (var entry : containers.long2ObjectEntrySet()) {
+            if (box.contains(pos.set(entry.getLongKey()))) {
+                visitor.visit(entry.getLongKey(), entry.getValue());
+            }
+        }
+    }
+
+    @Override
+    public TrackingWriter openWriter(int batchSize, TrackedItemIndex index, boolean bulk) {
+        return new Writer(batchSize, index);
+    }
+
+    @Override
+    public Long2LongOpenHashMap loadContentHashes(String world, BlockBox box) {
+        var stored = new Long2LongOpenHashMap();
+        lock.readLock().lock();
+        try {
+            forEachWithin(world, box, (pos, container) -> stored.put(pos, container.contentHash()));
+        } finally {
+            lock.readLock().unlock();
+        }
+        return stored;
+    }
+
+    @Override
+    public List<TrackingSearchResult> search(String world, BlockPos center, Integer range, String item, Integer requiredCount, int limit) {
+        record Candidate(long pos, int count, long distanceSq) {
+        }
+
+        long rangeSq = range == null ? Long.MAX_VALUE : (long) range * range;
+        List<Candidate> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            forEachWithin(world, range == null ? null : new BlockBox(center).expand(range), (pos, container) -> {
+                int count = container.count(item);
+                if (count <= 0) {
+                    return;
+                }
+                long dx = BlockPos.unpackLongX(pos) - center.getX();
+                long dy = BlockPos.unpackLongY(pos) - center.getY();
+                long dz = BlockPos.unpackLongZ(pos) - center.getZ();
+                long distanceSq = dx * dx + dy * dy + dz * dz;
+                if (distanceSq <= rangeSq) {
+                    candidates.add(new Candidate(pos, count, distanceSq));
+                }
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Same order as the database search
+        candidates.sort(Comparator.comparingLong(Candidate::distanceSq)
+                .thenComparingInt(candidate -> BlockPos.unpackLongX(candidate.pos()))
+                .thenComparingInt(candidate -> BlockPos.unpackLongY(candidate.pos()))
+                .thenComparingInt(candidate -> BlockPos.unpackLongZ(candidate.pos())));
+
+        List<TrackingSearchResult> results = new ArrayList<>();
+        long found = 0;
+        for (Candidate candidate : candidates) {
+            if (results.size() >= limit || (requiredCount != null && found >= requiredCount)) {
+                break;
+            }
+            results.add(new TrackingSearchResult(candidate.count(), world,
+                    BlockPos.unpackLongX(candidate.pos()), BlockPos.unpackLongY(candidate.pos()), BlockPos.unpackLongZ(candidate.pos()),
+                    Math.sqrt(candidate.distanceSq())));
+            found += candidate.count();
+        }
+        return results;
+    }
+
+    @Override
+    public void forEachItem(ItemRowConsumer consumer) {
+        var pos = new BlockPos.Mutable();
+        lock.readLock().lock();
+        try {
+            for (var world : worlds.entrySet()) {
+                forEachWithin(world.getKey(), null, (packed, container) -> {
+                    pos.set(packed);
+                    for (int i = 0; i < container.items().length; i++) {
+                        consumer.accept(world.getKey(), pos, container.items()[i], container.counts()[i]);
+                    }
+                });
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Totals getTotals() {
+        int containers = 0;
+        int items = 0;
+        lock.readLock().lock();
+        try {
+            for (var chunks : worlds.values()) {
+                for (var chunk : chunks.values()) {
+                    containers += chunk.size();
+                    for (StoredContainer container : chunk.values()) {
+                        for (int count : container.counts()) {
+                            items += count;
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new Totals(containers, items);
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            log.force();
+            channel.close();
+        } catch (IOException e) {
+            logger.error("Failed to close the tracking store: ", e);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Queues changes in memory, they reach the log as one transaction on commit.
+     */
+    private class Writer extends TrackingWriter {
+        private final List<Change> changes = new ArrayList<>();
+
+        private Writer(int batchSize, TrackedItemIndex index) {
+            super(batchSize, index);
+        }
+
+        @Override
+        protected void write(String world, BlockPos pos, String block, ItemTally items, long contentHash) {
+            List<String> keys = new ArrayList<>();
+            IntArrayList counts = new IntArrayList();
+            // Items are only turned into their stored string ids once per distinct item
+            for (Int2IntMap.Entry entry : items.entries()) {
+                keys.add(Registries.ITEM.get(entry.getIntKey()).getTranslationKey());
+                counts.add(entry.getIntValue());
+            }
+            changes.add(new Change(world, pos.asLong(), new StoredContainer(block, contentHash, keys.toArray(String[]::new), counts.toIntArray(), 0)));
+        }
+
+        @Override
+        protected void delete(String world, BlockPos pos) {
+            changes.add(new Change(world, pos.asLong(), null));
+        }
+
+        @Override
+        protected void flush() throws SQLException {
+            try {
+                append(changes);
+            } finally {
+                changes.clear();
+            }
+        }
+
+        @Override
+        protected void discard() {
+            changes.clear();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import net.minecraft.util.math.BlockPos;
+import space.ranzeplay.containeritemfinder.item.ItemTally;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Writes tracked containers to the database on a connection of its own, given back to the pool
+ * when the writer is closed.
+ * <p>
+ * A container already stored at a written position is deleted, its items with it through the
+ * cascade, and inserted again, so primary keys are never rewritten. Container ids are generated
+ * here, so item rows can be sent together with their container without waiting for the database
+ * to return an id.
+ */
+public abstract class JdbcTrackingWriter extends TrackingWriter {
+    protected final Connection connection;
+    private final ConnectionPool.Lease lease;
+    private final boolean previousAutoCommit;
+    private final PreparedStatement removeStatement;
+
+    protected JdbcTrackingWriter(ConnectionPool.Lease lease, int batchSize, TrackedItemIndex index) throws SQLException {
+        super(batchSize, index);
+        this.lease = lease;
+        this.connection = lease.connection();
+        this.previousAutoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        this.removeStatement = connection.prepareStatement(
+                "DELETE FROM containers WHERE world = ? AND x = ? AND y = ? AND z = ?"
+        );
+    }
+
+    @Override
+    protected void write(String world, BlockPos pos, String block, ItemTally items, long contentHash) throws SQLException {
+        write(UUID.randomUUID(), world, pos, block, items, contentHash);
+    }
+
+    protected abstract void write(UUID containerId, String world, BlockPos pos, String block, ItemTally items, long contentHash) throws SQLException;
+
+    @Override
+    protected void delete(String world, BlockPos pos) throws SQLException {
+        removeStatement.setString(1, world);
+        removeStatement.setInt(2, pos.getX());
+        removeStatement.setInt(3, pos.getY());
+        removeStatement.setInt(4, pos.getZ());
+        removeStatement.addBatch();
+    }
+
+    @Override
+    protected void flush() throws SQLException {
+        removeStatement.executeBatch();
+        flushRows();
+        connection.commit();
+    }
+
+    /**
+     * Sends the rows queued by {@link #write}, after the deletions queued by {@link #delete}. Containers
+     * already stored at a written position must be removed first, and containers must be sent before their items.
+     */
+    protected abstract void flushRows() throws SQLException;
+
+    @Override
+    protected void discard() throws SQLException {
+        connection.rollback();
+    }
+
+    protected void closeStatements() throws SQLException {
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            super.close();
+        } finally {
+            try {
+                removeStatement.close();
+                closeStatements();
+                connection.setAutoCommit(previousAutoCommit);
+            } finally {
+                lease.close();
+            }
+        }
+    }
+}
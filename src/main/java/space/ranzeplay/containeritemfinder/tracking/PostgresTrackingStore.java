@@ -0,0 +1,244 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import net.minecraft.util.math.BlockBox;
+import net.minecraft.util.math.BlockPos;
+import org.slf4j.Logger;
+import space.ranzeplay.containeritemfinder.models.Config;
+import space.ranzeplay.containeritemfinder.models.TrackingSearchResult;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores tracked containers in a PostgreSQL database, through a pool of connections.
+ */
+public class PostgresTrackingStore implements TrackingStore {
+    private final ConnectionPool pool;
+    private final int searchTimeoutSeconds;
+    private final boolean bulkLoad;
+
+    /**
+     * Connects to the database and migrates its schema.
+     *
+     * @throws SQLException          if the database cannot be reached
+     * @throws IllegalStateException if the schema cannot be migrated
+     */
+    public PostgresTrackingStore(Config config, Logger logger) throws SQLException, IOException {
+        searchTimeoutSeconds = Math.max(1, config.getDatabaseSearchTimeoutSeconds());
+        bulkLoad = config.isTrackingBulkLoad();
+        pool = new ConnectionPool(
+                config.getDatabaseConnectionString(),
+                config.getDatabasePoolSize(),
+                config.getDatabaseMaxLifetimeMinutes() * 60_000L,
+                config.getDatabaseConnectionTimeoutMillis(),
+                config.getDatabaseLeakThresholdMillis(),
+                logger
+        );
+
+        ConnectionPool.Lease migrationLease;
+        try {
+            migrationLease = pool.borrow();
+        } catch (SQLException e) {
+            pool.close();
+            throw e;
+        }
+
+        // Migrate database schema
+        final var path = getClass().getClassLoader().getResource("init.sql");
+        if (path == null) {
+            migrationLease.close();
+            pool.close();
+            logger.error("Failed to find database migration script.");
+            throw new IllegalStateException("Failed to find database migration script.");
+        }
+
+        final var stream = getClass().getClassLoader().getResourceAsStream("init.sql");
+        if (stream == null) {
+            migrationLease.close();
+            pool.close();
+            logger.error("Failed to load database migration script.");
+            throw new IllegalStateException("Failed to load database migration script.");
+        }
+
+        var reader = new BufferedReader(new InputStreamReader(stream));
+        var sql = reader.lines().reduce("", (a, b) -> a + "\n" + b);
+        try (var lease = migrationLease; var stmt = lease.connection().createStatement()) {
+            stmt.execute(sql);
+        } catch (Exception e) {
+            logger.error("Failed to migrate database schema: ", e);
+            pool.close();
+            throw new IllegalStateException("Failed to migrate database schema: ", e);
+        } finally {
+            reader.close();
+            stream.close();
+        }
+    }
+
+    @Override
+    public TrackingWriter openWriter(int batchSize, TrackedItemIndex index, boolean bulk) throws SQLException {
+        var lease = pool.borrow();
+        try {
+            if (bulk && bulkLoad && TrackingCopyWriter.isSupported(lease.connection())) {
+                return new TrackingCopyWriter(lease, batchSize, index);
+            }
+            return new TrackingBatchWriter(lease, batchSize, index);
+        } catch (SQLException | RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public Long2LongOpenHashMap loadContentHashes(String world, BlockBox box) throws SQLException {
+        var stored = new Long2LongOpenHashMap();
+        try (var lease = pool.borrow();
+             var statement = lease.connection().prepareStatement(
+                     "SELECT x, y, z, COALESCE(content_hash, 0) FROM containers WHERE world = ? AND x BETWEEN ? AND ? AND y BETWEEN ? AND ? AND z BETWEEN ? AND ?"
+             )) {
+            statement.setString(1, world);
+            statement.setInt(2, box.getMinX());
+            statement.setInt(3, box.getMaxX());
+            statement.setInt(4, box.getMinY());
+            statement.setInt(5, box.getMaxY());
+            statement.setInt(6, box.getMinZ());
+            statement.setInt(7, box.getMaxZ());
+            try (var rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    stored.put(BlockPos.asLong(rs.getInt(1), rs.getInt(2), rs.getInt(3)), rs.getLong(4));
+                }
+            }
+        }
+        return stored;
+    }
+
+    /**
+     * @throws SQLException with SQL state {@code 57014} if the query took longer than the search timeout
+     */
+    @Override
+    public List<TrackingSearchResult> search(String world, BlockPos center, Integer range, String item, Integer requiredCount, int limit) throws SQLException {
+        int x = center.getX();
+        int y = center.getY();
+        int z = center.getZ();
+
+        // The box lets the position index discard far containers before any distance is computed
+        var sql = new StringBuilder("""
+                SELECT *
+                FROM (
+                         SELECT items.count, containers.world, containers.x, containers.y, containers.z,
+                                (containers.x - ?)::bigint * (containers.x - ?)
+                                    + (containers.y - ?)::bigint * (containers.y - ?)
+                                    + (containers.z - ?)::bigint * (containers.z - ?) AS dist_sq
+                         FROM items
+                                  JOIN containers ON items.container = containers.id
+                         WHERE items.item = ?
+                           AND containers.world = ?
+                """);
+        if (range != null) {
+            sql.append("""
+                           AND containers.x BETWEEN ? AND ?
+                           AND containers.y BETWEEN ? AND ?
+                           AND containers.z BETWEEN ? AND ?
+                    """);
+        }
+        sql.append("     ) sub\n");
+        if (range != null) {
+            sql.append("WHERE dist_sq <= ?\n");
+        }
+        if (requiredCount != null) {
+            // Only the nearest rows needed to reach the count, found is the running total before each row
+            sql.insert(0, "SELECT * FROM (SELECT *, SUM(count) OVER (ORDER BY dist_sq, x, y, z ROWS UNBOUNDED PRECEDING) - count AS found FROM (\n");
+            sql.append(") ranked) totals WHERE found < ?\n");
+        }
+        sql.append("ORDER BY dist_sq, x, y, z\nLIMIT ?");
+
+        List<TrackingSearchResult> results = new ArrayList<>();
+        try (var lease = pool.borrow();
+             var statement = lease.connection().prepareStatement(sql.toString())) {
+            statement.setQueryTimeout(searchTimeoutSeconds);
+
+            int parameter = 1;
+            for (int coordinate : new int[]{x, y, z}) {
+                statement.setInt(parameter++, coordinate);
+                statement.setInt(parameter++, coordinate);
+            }
+            statement.setString(parameter++, item);
+            statement.setString(parameter++, world);
+            if (range != null) {
+                for (int coordinate : new int[]{x, y, z}) {
+                    statement.setInt(parameter++, coordinate - range);
+                    statement.setInt(parameter++, coordinate + range);
+                }
+                statement.setLong(parameter++, (long) range * range);
+            }
+            if (requiredCount != null) {
+                statement.setLong(parameter++, requiredCount);
+            }
+            statement.setInt(parameter, limit);
+
+            try (var rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    results.add(new TrackingSearchResult(rs));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    @Override
+    public void forEachItem(ItemRowConsumer consumer) throws SQLException {
+        try (var lease = pool.borrow()) {
+            // Without autocommit the rows are streamed through a cursor instead of read all at once
+            lease.connection().setAutoCommit(false);
+            try (var statement = lease.connection().prepareStatement(
+                    "SELECT containers.world, containers.x, containers.y, containers.z, items.item, items.count FROM items JOIN containers ON items.container = containers.id"
+            )) {
+                statement.setFetchSize(10_000);
+                try (var rs = statement.executeQuery()) {
+                    var pos = new BlockPos.Mutable();
+                    while (rs.next()) {
+                        consumer.accept(rs.getString(1), pos.set(rs.getInt(2), rs.getInt(3), rs.getInt(4)), rs.getString(5), rs.getInt(6));
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public Totals getTotals() throws SQLException {
+        int containerCount = -1;
+        int itemCount = -1;
+        try (var lease = pool.borrow()) {
+            var connection = lease.connection();
+            var containerCountStmt = connection.prepareStatement("SELECT COUNT(*) FROM containers");
+            var containerCountRs = containerCountStmt.executeQuery();
+            if (containerCountRs.next()) {
+                containerCount = containerCountRs.getInt(1);
+            }
+            containerCountStmt.close();
+
+            var itemCountStmt = connection.prepareStatement("SELECT SUM(count) FROM items");
+            var itemCountRs = itemCountStmt.executeQuery();
+            if (itemCountRs.next()) {
+                itemCount = itemCountRs.getInt(1);
+            }
+            itemCountStmt.close();
+        }
+        return new Totals(containerCount, itemCount);
+    }
+
+    @Override
+    public ConnectionPool.Stats getPoolStats() {
+        return pool.getStats();
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+}
@@ -0,0 +1,322 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.math.BlockPos;
+import net.minecraft.util.math.ChunkPos;
+import space.ranzeplay.containeritemfinder.item.ItemTally;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory copy of the tracked containers, so {@code /dif search} is answered without a database
+ * round trip. The {@link TrackingStore} stays the durable copy: the index is filled from it at startup
+ * and then kept up to date by {@link TrackingWriter} after every commit.
+ * <p>
+ * Per world, every item raw id maps to the packed positions of the containers holding it and their
+ * counts. Containers are also bucketed into a grid of columns, so a search for a common item with a
+ * count walks outwards from the center instead of sorting every container holding it.
+ */
+public class TrackedItemIndex {
+    private static final int CELL_SHIFT = 5;
+    private static final int CELL_SIZE = 1 << CELL_SHIFT;
+    // Items held by at most this many containers are searched by ordering all of them
+    private static final int SORT_ALL_LIMIT = 4096;
+
+    public record Hit(BlockPos pos, int count, long distanceSq) {
+    }
+
+    private static class WorldIndex {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        // Item raw id to packed position to count
+        private final Int2ObjectOpenHashMap<Long2IntOpenHashMap> postings = new Int2ObjectOpenHashMap<>();
+        // Packed position to the raw ids of the items held, to find its postings again
+        private final Long2ObjectOpenHashMap<int[]> contents = new Long2ObjectOpenHashMap<>();
+        // Grid column to the packed positions of the containers in it
+        private final Long2ObjectOpenHashMap<LongOpenHashSet> grid = new Long2ObjectOpenHashMap<>();
+        private int minCellX = Integer.MAX_VALUE;
+        private int maxCellX = Integer.MIN_VALUE;
+        private int minCellZ = Integer.MAX_VALUE;
+        private int maxCellZ = Integer.MIN_VALUE;
+
+        // Positions written while the index was loading, whose stored rows may already be outdated
+        private final LongOpenHashSet touchedWhileLoading = new LongOpenHashSet();
+    }
+
+    private final ConcurrentHashMap<String, WorldIndex> worlds = new ConcurrentHashMap<>();
+    private volatile boolean loading = false;
+    private volatile boolean ready = false;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Starts filling the index from the store, dropping whatever an earlier load left behind. Until
+     * {@link #finishLoad()}, positions updated through {@link #apply} are not overwritten by {@link #load}.
+     */
+    public void beginLoad() {
+        ready = false;
+        worlds.clear();
+        loading = true;
+    }
+
+    public void finishLoad() {
+        loading = false;
+        for (WorldIndex index : worlds.values()) {
+            index.lock.writeLock().lock();
+            try {
+                index.touchedWhileLoading.clear();
+            } finally {
+                index.lock.writeLock().unlock();
+            }
+        }
+        ready = true;
+    }
+
+    /**
+     * Gives up loading, the index stays unused and the partly loaded containers are dropped.
+     */
+    public void abortLoad() {
+        loading = false;
+        worlds.clear();
+    }
+
+    /**
+     * Adds one stored item row while loading.
+     */
+    public void load(String world, BlockPos pos, int itemId, int count) {
+        WorldIndex index = worlds.computeIfAbsent(world, w -> new WorldIndex());
+        long key = pos.asLong();
+        index.lock.writeLock().lock();
+        try {
+            if (index.touchedWhileLoading.contains(key)) {
+                return;
+            }
+
+            int[] held = index.contents.get(key);
+            if (held == null) {
+                addToGrid(index, key);
+                held = new int[0];
+            }
+            int[] grown = Arrays.copyOf(held, held.length + 1);
+            grown[held.length] = itemId;
+            index.contents.put(key, grown);
+            index.postings.computeIfAbsent(itemId, id -> new Long2IntOpenHashMap()).addTo(key, count);
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces what is known about the container at {@code pos}. Does nothing while the index is
+     * neither loading nor ready, the next load reads the change from the store.
+     *
+     * @param items the committed contents, null once the container is removed
+     */
+    public void apply(String world, BlockPos pos, ItemTally items) {
+        if (!loading && !ready) {
+            return;
+        }
+
+        WorldIndex index = worlds.computeIfAbsent(world, w -> new WorldIndex());
+        long key = pos.asLong();
+        index.lock.writeLock().lock();
+        try {
+            if (loading) {
+                index.touchedWhileLoading.add(key);
+            }
+
+            int[] previous = index.contents.remove(key);
+            if (previous != null) {
+                for (int itemId : previous) {
+                    Long2IntOpenHashMap posting = index.postings.get(itemId);
+                    if (posting != null) {
+                        posting.remove(key);
+                        if (posting.isEmpty()) {
+                            index.postings.remove(itemId);
+                        }
+                    }
+                }
+            }
+
+            if (items == null || items.isEmpty()) {
+                if (previous != null) {
+                    removeFromGrid(index, key);
+                }
+                return;
+            }
+
+            if (previous == null) {
+                addToGrid(index, key);
+            }
+            IntArrayList held = new IntArrayList();
+            for (Int2IntMap.Entry entry : items.entries()) {
+                held.add(entry.getIntKey());
+                index.postings.computeIfAbsent(entry.getIntKey(), id -> new Long2IntOpenHashMap()).put(key, entry.getIntValue());
+            }
+            index.contents.put(key, held.toIntArray());
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+    }
+
+    private static long cellKey(long pos) {
+        return ChunkPos.toLong(BlockPos.unpackLongX(pos) >> CELL_SHIFT, BlockPos.unpackLongZ(pos) >> CELL_SHIFT);
+    }
+
+    private static void addToGrid(WorldIndex index, long pos) {
+        int cellX = BlockPos.unpackLongX(pos) >> CELL_SHIFT;
+        int cellZ = BlockPos.unpackLongZ(pos) >> CELL_SHIFT;
+        index.grid.computeIfAbsent(ChunkPos.toLong(cellX, cellZ), cell -> new LongOpenHashSet()).add(pos);
+        index.minCellX = Math.min(index.minCellX, cellX);
+        index.maxCellX = Math.max(index.maxCellX, cellX);
+        index.minCellZ = Math.min(index.minCellZ, cellZ);
+        index.maxCellZ = Math.max(index.maxCellZ, cellZ);
+    }
+
+    private static void removeFromGrid(WorldIndex index, long pos) {
+        long cell = cellKey(pos);
+        LongOpenHashSet positions = index.grid.get(cell);
+        if (positions != null && positions.remove(pos) && positions.isEmpty()) {
+            index.grid.remove(cell);
+        }
+    }
+
+    /**
+     * Finds the containers holding an item, nearest first.
+     *
+     * @param range         maximum distance from {@code center}, null for no limit
+     * @param requiredCount stop once the containers found hold this many items, null for no limit
+     * @param limit         maximum number of containers returned
+     */
+    public List<Hit> nearest(String world, int itemId, BlockPos center, Integer range, Integer requiredCount, int limit) {
+        WorldIndex index = worlds.get(world);
+        if (index == null) {
+            return List.of();
+        }
+
+        long rangeSq = range == null ? Long.MAX_VALUE : (long) range * range;
+        index.lock.readLock().lock();
+        try {
+            Long2IntOpenHashMap posting = index.postings.get(itemId);
+            if (posting == null) {
+                return List.of();
+            }
+
+            var collector = new Collector(requiredCount, limit);
+            int centerCellX = center.getX() >> CELL_SHIFT;
+            int centerCellZ = center.getZ() >> CELL_SHIFT;
+            int maxRing = Math.max(
+                    Math.max(centerCellX - index.minCellX, index.maxCellX - centerCellX),
+                    Math.max(centerCellZ - index.minCellZ, index.maxCellZ - centerCellZ)
+            );
+            if (range != null) {
+                maxRing = Math.min(maxRing, (range >> CELL_SHIFT) + 1);
+            }
+
+            // Walking the grid only pays off for common items when a count lets it stop early,
+            // and when the rings do not mostly cover empty cells
+            long ringCells = (2L * maxRing + 1) * (2L * maxRing + 1);
+            if (requiredCount == null || posting.size() <= SORT_ALL_LIMIT || ringCells > 4L * index.grid.size()) {
+                for (Long2IntOpenHashMap.Entry entry : posting.long2IntEntrySet()) {
+                    collector.offer(entry.getLongKey(), entry.getIntValue(), center, rangeSq);
+                }
+                collector.take(Long.MAX_VALUE);
+                return collector.hits;
+            }
+
+            for (int ring = 0; ring <= maxRing; ring++) {
+                for (int dx = -ring; dx <= ring; dx++) {
+                    // Only the border of the ring, the inside was covered by the smaller rings
+                    int step = dx == -ring || dx == ring ? 1 : 2 * ring;
+                    for (int dz = -ring; dz <= ring; dz += step) {
+                        LongOpenHashSet positions = index.grid.get(ChunkPos.toLong(centerCellX + dx, centerCellZ + dz));
+                        if (positions == null) {
+                            continue;
+                        }
+                        for (long pos : positions) {
+                            int count = posting.get(pos);
+                            if (count > 0) {
+                                collector.offer(pos, count, center, rangeSq);
+                            }
+                        }
+                    }
+                }
+
+                // Containers in further rings are at least this far away horizontally
+                long boundary = (long) ring * CELL_SIZE;
+                if (collector.take(boundary * boundary)) {
+                    return collector.hits;
+                }
+            }
+            collector.take(Long.MAX_VALUE);
+            return collector.hits;
+        } finally {
+            index.lock.readLock().unlock();
+        }
+    }
+
+    // Orders candidate containers and hands them out nearest first until the count or the limit is reached
+    private static class Collector {
+        private final PriorityQueue<Hit> pending = new PriorityQueue<>(
+                Comparator.comparingLong(Hit::distanceSq).thenComparingLong(hit -> hit.pos().asLong()));
+        private final List<Hit> hits = new ArrayList<>();
+        private final Integer requiredCount;
+        private final int limit;
+        private long found = 0;
+
+        private Collector(Integer requiredCount, int limit) {
+            this.requiredCount = requiredCount;
+            this.limit = limit;
+        }
+
+        private void offer(long pos, int count, BlockPos center, long rangeSq) {
+            long dx = BlockPos.unpackLongX(pos) - center.getX();
+            long dy = BlockPos.unpackLongY(pos) - center.getY();
+            long dz = BlockPos.unpackLongZ(pos) - center.getZ();
+            long distanceSq = dx * dx + dy * dy + dz * dz;
+            if (distanceSq <= rangeSq) {
+                pending.add(new Hit(BlockPos.fromLong(pos), count, distanceSq));
+            }
+        }
+
+        private boolean isFull() {
+            return hits.size() >= limit || (requiredCount != null && found >= requiredCount);
+        }
+
+        // Moves pending hits up to maxDistanceSq away to the result, returns true once it is full
+        private boolean take(long maxDistanceSq) {
+            while (!isFull() && !pending.isEmpty() && pending.peek().distanceSq() <= maxDistanceSq) {
+                Hit hit = pending.poll();
+                hits.add(hit);
+                found += hit.count();
+            }
+            return isFull();
+        }
+    }
+
+    public int getContainerCount() {
+        int count = 0;
+        for (WorldIndex index : worlds.values()) {
+            index.lock.readLock().lock();
+            try {
+                count += index.contents.size();
+            } finally {
+                index.lock.readLock().unlock();
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,63 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.math.BlockPos;
+import space.ranzeplay.containeritemfinder.item.ItemTally;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Sends tracked rows as JDBC statement batches. Works with any database.
+ */
+public class TrackingBatchWriter extends JdbcTrackingWriter {
+    private final PreparedStatement containerStatement;
+    private final PreparedStatement itemStatement;
+
+    public TrackingBatchWriter(ConnectionPool.Lease lease, int batchSize, TrackedItemIndex index) throws SQLException {
+        super(lease, batchSize, index);
+        this.containerStatement = connection.prepareStatement(
+                "INSERT INTO containers (id, world, x, y, z, block, content_hash) VALUES (?, ?, ?, ?, ?, ?, ?)"
+        );
+        this.itemStatement = connection.prepareStatement(
+                "INSERT INTO items (item, count, container) VALUES (?, ?, ?)"
+        );
+    }
+
+    @Override
+    protected void write(UUID containerId, String world, BlockPos pos, String block, ItemTally items, long contentHash) throws SQLException {
+        // The old row goes first, its items with it through the cascade
+        delete(world, pos);
+
+        containerStatement.setObject(1, containerId);
+        containerStatement.setString(2, world);
+        containerStatement.setInt(3, pos.getX());
+        containerStatement.setInt(4, pos.getY());
+        containerStatement.setInt(5, pos.getZ());
+        containerStatement.setString(6, block);
+        containerStatement.setLong(7, contentHash);
+        containerStatement.addBatch();
+
+        // Items are only turned into their stored string ids once per distinct item
+        for (Int2IntMap.Entry entry : items.entries()) {
+            itemStatement.setString(1, Registries.ITEM.get(entry.getIntKey()).getTranslationKey());
+            itemStatement.setInt(2, entry.getIntValue());
+            itemStatement.setObject(3, containerId);
+            itemStatement.addBatch();
+        }
+    }
+
+    @Override
+    protected void flushRows() throws SQLException {
+        containerStatement.executeBatch();
+        itemStatement.executeBatch();
+    }
+
+    @Override
+    protected void closeStatements() throws SQLException {
+        containerStatement.close();
+        itemStatement.close();
+    }
+}
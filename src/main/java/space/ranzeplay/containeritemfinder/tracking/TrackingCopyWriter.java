@@ -0,0 +1,112 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import net.minecraft.registry.Registries;
+import net.minecraft.util.math.BlockPos;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import space.ranzeplay.containeritemfinder.item.ItemTally;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Bulk loads tracked rows with PostgreSQL {@code COPY ... FROM STDIN}, one COPY per table and batch,
+ * so no statement is executed per row.
+ * <p>
+ * A connection can only run one COPY at a time, so the rows of a batch are gathered as CSV and
+ * both tables are copied when the batch is committed, containers first. COPY cannot replace rows,
+ * so containers go through a temporary staging table: the stored containers at the staged positions
+ * are deleted, their items with them through the cascade, and the staged ones inserted.
+ */
+public class TrackingCopyWriter extends JdbcTrackingWriter {
+    private static final String CREATE_STAGING = "CREATE TEMPORARY TABLE IF NOT EXISTS containers_staging (LIKE containers) ON COMMIT DELETE ROWS";
+    private static final String CONTAINER_COPY = "COPY containers_staging (id, world, x, y, z, block, content_hash) FROM STDIN WITH (FORMAT csv)";
+    private static final String DELETE_STAGED = """
+            DELETE FROM containers USING containers_staging
+            WHERE containers.world = containers_staging.world
+              AND containers.x = containers_staging.x
+              AND containers.y = containers_staging.y
+              AND containers.z = containers_staging.z
+            """;
+    private static final String INSERT_STAGED = """
+            INSERT INTO containers (id, world, x, y, z, block, content_hash)
+            SELECT id, world, x, y, z, block, content_hash FROM containers_staging
+            """;
+    private static final String ITEM_COPY = "COPY items (item, count, container) FROM STDIN WITH (FORMAT csv)";
+
+    private final CopyManager copyManager;
+    private final StringBuilder containerRows = new StringBuilder();
+    private final StringBuilder itemRows = new StringBuilder();
+
+    public TrackingCopyWriter(ConnectionPool.Lease lease, int batchSize, TrackedItemIndex index) throws SQLException {
+        super(lease, batchSize, index);
+        this.copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+        try (var statement = connection.createStatement()) {
+            statement.execute(CREATE_STAGING);
+        }
+    }
+
+    public static boolean isSupported(Connection connection) throws SQLException {
+        return connection.isWrapperFor(PGConnection.class);
+    }
+
+    @Override
+    protected void write(UUID containerId, String world, BlockPos pos, String block, ItemTally items, long contentHash) {
+        containerRows.append(containerId).append(',');
+        appendCsvText(containerRows, world).append(',')
+                .append(pos.getX()).append(',')
+                .append(pos.getY()).append(',')
+                .append(pos.getZ()).append(',');
+        appendCsvText(containerRows, block).append(',')
+                .append(contentHash).append('\n');
+
+        // Items are only turned into their stored string ids once per distinct item
+        for (Int2IntMap.Entry entry : items.entries()) {
+            appendCsvText(itemRows, Registries.ITEM.get(entry.getIntKey()).getTranslationKey()).append(',')
+                    .append(entry.getIntValue()).append(',')
+                    .append(containerId).append('\n');
+        }
+    }
+
+    @Override
+    protected void flushRows() throws SQLException {
+        if (!containerRows.isEmpty()) {
+            copy(CONTAINER_COPY, containerRows);
+            try (var statement = connection.createStatement()) {
+                statement.execute(DELETE_STAGED);
+                statement.execute(INSERT_STAGED);
+                statement.execute("DELETE FROM containers_staging");
+            }
+        }
+        copy(ITEM_COPY, itemRows);
+    }
+
+    private void copy(String sql, StringBuilder rows) throws SQLException {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        try {
+            copyManager.copyIn(sql, new StringReader(rows.toString()));
+        } catch (IOException e) {
+            throw new SQLException("Failed to stream rows to the database", e);
+        }
+        rows.setLength(0);
+    }
+
+    private static StringBuilder appendCsvText(StringBuilder builder, String value) {
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                builder.append('"');
+            }
+            builder.append(c);
+        }
+        return builder.append('"');
+    }
+}
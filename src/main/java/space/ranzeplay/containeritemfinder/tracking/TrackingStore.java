@@ -0,0 +1,64 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import net.minecraft.util.math.BlockBox;
+import net.minecraft.util.math.BlockPos;
+import space.ranzeplay.containeritemfinder.models.TrackingSearchResult;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Durable storage of the tracked containers. Containers are identified by world and position, items
+ * by their translation key, so rows of items that are no longer registered are kept.
+ * <p>
+ * Implementations are used from many threads at once.
+ */
+public interface TrackingStore extends AutoCloseable {
+    @FunctionalInterface
+    interface ItemRowConsumer {
+        void accept(String world, BlockPos pos, String item, int count);
+    }
+
+    record Totals(int containers, int items) {
+    }
+
+    /**
+     * Opens a writer for container changes, to be used by one thread.
+     *
+     * @param bulk the writer is used to store many containers at once, like the tiles of an area rescan
+     */
+    TrackingWriter openWriter(int batchSize, TrackedItemIndex index, boolean bulk) throws SQLException;
+
+    /**
+     * @return position to content fingerprint of the containers stored within {@code box}
+     */
+    Long2LongOpenHashMap loadContentHashes(String world, BlockBox box) throws SQLException;
+
+    /**
+     * Finds the stored containers holding an item, nearest first.
+     *
+     * @param item          translation key of the item
+     * @param range         maximum distance from {@code center}, null for no limit
+     * @param requiredCount stop once the containers found hold this many items, null for no limit
+     * @param limit         maximum number of containers returned
+     */
+    List<TrackingSearchResult> search(String world, BlockPos center, Integer range, String item, Integer requiredCount, int limit) throws SQLException;
+
+    /**
+     * Hands every stored item row to {@code consumer}, for filling the {@link TrackedItemIndex}.
+     */
+    void forEachItem(ItemRowConsumer consumer) throws SQLException;
+
+    Totals getTotals() throws SQLException;
+
+    /**
+     * @return usage of the connection pool, null if the store does not use one
+     */
+    default ConnectionPool.Stats getPoolStats() {
+        return null;
+    }
+
+    @Override
+    void close();
+}
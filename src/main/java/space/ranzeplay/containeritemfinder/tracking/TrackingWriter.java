@@ -0,0 +1,106 @@
+package space.ranzeplay.containeritemfinder.tracking;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import net.minecraft.util.math.BlockPos;
+import space.ranzeplay.containeritemfinder.item.ItemTally;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes tracked containers and their items to a {@link TrackingStore}, committing once every
+ * {@code batchSize} containers instead of once per container.
+ * <p>
+ * A container that is already stored at a position is replaced. Implementations may reorder the changes
+ * of one batch, so a position changed twice commits the batch in between. Work since the last {@link #commit()}
+ * is discarded when the writer is closed. Committed changes are applied to the {@link TrackedItemIndex},
+ * so it never shows anything the store does not hold.
+ */
+public abstract class TrackingWriter implements AutoCloseable {
+    private final int batchSize;
+    private final TrackedItemIndex index;
+    // Changes since the last commit, null items for removals
+    private final List<ContainerCapture> pendingIndexUpdates = new ArrayList<>();
+    // World to the packed positions changed since the last commit
+    private final Map<String, LongOpenHashSet> pendingPositions = new HashMap<>();
+    private int pendingContainers = 0;
+
+    protected TrackingWriter(int batchSize, TrackedItemIndex index) {
+        this.index = index;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Stores the container at {@code pos}, replacing whatever was stored there before.
+     *
+     * @param contentHash fingerprint of the contents, see {@link ItemTally#contentHash(String)}
+     */
+    public void put(String world, BlockPos pos, String block, ItemTally items, long contentHash) throws SQLException {
+        claimPosition(world, pos);
+        write(world, pos, block, items, contentHash);
+        pendingIndexUpdates.add(new ContainerCapture(world, pos.toImmutable(), block, items));
+        countPending();
+    }
+
+    /**
+     * Removes the container stored at {@code pos}, if any, together with its items.
+     */
+    public void remove(String world, BlockPos pos) throws SQLException {
+        claimPosition(world, pos);
+        delete(world, pos);
+        pendingIndexUpdates.add(ContainerCapture.removal(world, pos.toImmutable()));
+        countPending();
+    }
+
+    // Deletions are sent before writes, so a second change to a position must not share the batch of the first
+    private void claimPosition(String world, BlockPos pos) throws SQLException {
+        if (!pendingPositions.computeIfAbsent(world, w -> new LongOpenHashSet()).add(pos.asLong())) {
+            commit();
+            pendingPositions.computeIfAbsent(world, w -> new LongOpenHashSet()).add(pos.asLong());
+        }
+    }
+
+    private void countPending() throws SQLException {
+        if (++pendingContainers >= batchSize) {
+            commit();
+        }
+    }
+
+    /**
+     * Makes everything written through this writer so far durable.
+     */
+    public void commit() throws SQLException {
+        flush();
+        pendingContainers = 0;
+        pendingPositions.clear();
+
+        for (ContainerCapture update : pendingIndexUpdates) {
+            index.apply(update.world(), update.pos(), update.items());
+        }
+        pendingIndexUpdates.clear();
+    }
+
+    protected abstract void write(String world, BlockPos pos, String block, ItemTally items, long contentHash) throws SQLException;
+
+    protected abstract void delete(String world, BlockPos pos) throws SQLException;
+
+    /**
+     * Stores the changes queued by {@link #write} and {@link #delete} since the last commit, all or nothing.
+     */
+    protected abstract void flush() throws SQLException;
+
+    /**
+     * Drops the changes queued since the last commit.
+     */
+    protected abstract void discard() throws SQLException;
+
+    @Override
+    public void close() throws SQLException {
+        pendingIndexUpdates.clear();
+        pendingPositions.clear();
+        discard();
+    }
+}
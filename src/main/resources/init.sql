@@ -8,6 +8,27 @@ CREATE TABLE IF NOT EXISTS containers
     block TEXT             NOT NULL
 );
 
+-- Fingerprint of the stored contents, NULL for rows written before it existed
+ALTER TABLE containers
+    ADD COLUMN IF NOT EXISTS content_hash BIGINT;
+
+-- Containers are unique by position, older databases may still hold duplicates
+DO
+$$
+    BEGIN
+        IF NOT EXISTS (SELECT 1 FROM pg_indexes WHERE indexname = 'containers_position') THEN
+            DELETE
+            FROM containers a USING containers b
+            WHERE a.ctid < b.ctid
+              AND a.world = b.world
+              AND a.x = b.x
+              AND a.y = b.y
+              AND a.z = b.z;
+            CREATE UNIQUE INDEX containers_position ON containers (world, x, y, z);
+        END IF;
+    END
+$$;
+
 CREATE TABLE IF NOT EXISTS items
 (
     id        UUID PRIMARY KEY NOT NULL UNIQUE DEFAULT gen_random_uuid(),
@@ -17,6 +38,10 @@ CREATE TABLE IF NOT EXISTS items
     container UUID REFERENCES containers (id) ON DELETE CASCADE
 );
 
+-- /dif search looks up items by id and joins their containers, rescans and removals look up items by container
+CREATE INDEX IF NOT EXISTS items_item_container ON items (item, container) INCLUDE (count);
+CREATE INDEX IF NOT EXISTS items_container ON items (container);
+
 CREATE OR REPLACE FUNCTION distance(
     x1 double precision, y1 double precision, z1 double precision,
     x2 double precision, y2 double precision, z2 double precision